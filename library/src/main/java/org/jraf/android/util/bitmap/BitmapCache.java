@@ -0,0 +1,236 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.util.bitmap;
+
+import java.io.File;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.util.Log;
+import android.util.LruCache;
+
+import org.jraf.android.util.Constants;
+import org.jraf.android.util.pool.MemoryPressureRegistry;
+import org.jraf.android.util.pool.Trimmable;
+
+/**
+ * Memory cache of thumbnails, bounded by the number of bytes used by the pixels of the bitmaps, evicting the least recently used ones first.<br/>
+ * Thumbnails are identified by the path and last modification time of their file, and their max dimensions, so a modified file is decoded again.<br/>
+ * <br/>
+ * Once registered with {@link #register(Context)}, the cache shrinks when the system asks the application to trim its memory. It also adds itself to the
+ * {@link MemoryPressureRegistry}.<br/>
+ * A {@link ThumbnailDiskCache} can be set with {@link #setDiskCache(ThumbnailDiskCache)}, to be used by {@link #getThumbnail(File, int, int)} before
+ * decoding the original file.<br/>
+ * The bitmaps returned by the cache are shared: they must not be recycled or modified.
+ */
+public class BitmapCache implements ComponentCallbacks2, Trimmable {
+    private static final String TAG = Constants.TAG + BitmapCache.class.getSimpleName();
+
+    private final int mMaxSize;
+    private final LruCache<Key, Bitmap> mLruCache;
+    private volatile ThumbnailDiskCache mDiskCache;
+
+    private static class Key {
+        private final String mPath;
+        private final long mLastModified;
+        private final int mMaxWidth;
+        private final int mMaxHeight;
+
+        private Key(File file, int maxWidth, int maxHeight) {
+            mPath = file.getPath();
+            mLastModified = file.lastModified();
+            mMaxWidth = maxWidth;
+            mMaxHeight = maxHeight;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return mLastModified == key.mLastModified && mMaxWidth == key.mMaxWidth && mMaxHeight == key.mMaxHeight && mPath.equals(key.mPath);
+        }
+
+        @Override
+        public int hashCode() {
+            int res = mPath.hashCode();
+            res = 31 * res + (int) (mLastModified ^ (mLastModified >>> 32));
+            res = 31 * res + mMaxWidth;
+            res = 31 * res + mMaxHeight;
+            return res;
+        }
+    }
+
+    /**
+     * Creates a cache using at most the given number of bytes.
+     *
+     * @param maxSize The maximum number of bytes used by the pixels of the cached bitmaps.
+     */
+    public BitmapCache(int maxSize) {
+        mMaxSize = maxSize;
+        mLruCache = new LruCache<Key, Bitmap>(maxSize) {
+            @Override
+            protected int sizeOf(Key key, Bitmap value) {
+                return BitmapUtil.getAllocationByteCount(value);
+            }
+        };
+        MemoryPressureRegistry.getInstance().add(this);
+    }
+
+    /**
+     * Creates a cache using at most half of {@link MemoryPressureRegistry#getDefaultMaxRetainedBytes()} (1/8th of the maximum memory of the VM), leaving
+     * the other half to the pools.
+     */
+    public BitmapCache() {
+        this((int) Math.min(MemoryPressureRegistry.getDefaultMaxRetainedBytes() / 2, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Returns the cached thumbnail of the given file, if any.
+     *
+     * @return The cached thumbnail, or {@code null}.
+     */
+    public Bitmap get(File bitmapFile, int maxWidth, int maxHeight) {
+        return mLruCache.get(new Key(bitmapFile, maxWidth, maxHeight));
+    }
+
+    /**
+     * Caches the given thumbnail of the given file.
+     */
+    public void put(File bitmapFile, int maxWidth, int maxHeight, Bitmap thumbnail) {
+        mLruCache.put(new Key(bitmapFile, maxWidth, maxHeight), thumbnail);
+        MemoryPressureRegistry.getInstance().checkRetainedBytes();
+    }
+
+    /**
+     * Sets the disk cache used by {@link #getThumbnail(File, int, int)} when a thumbnail is not in memory.
+     *
+     * @param diskCache The disk cache (can be {@code null}).
+     */
+    public void setDiskCache(ThumbnailDiskCache diskCache) {
+        mDiskCache = diskCache;
+    }
+
+    /**
+     * Returns the cached thumbnail of the given file, or gets it from the disk cache if one is set, or creates it with
+     * {@link BitmapUtil#createThumbnail(File, int, int)}, and caches it.<br/>
+     * This accesses the disk if the thumbnail is not cached, and should not be called from the UI thread.
+     *
+     * @return The thumbnail, or {@code null} if the file could not be decoded.
+     */
+    public Bitmap getThumbnail(File bitmapFile, int maxWidth, int maxHeight) {
+        Key key = new Key(bitmapFile, maxWidth, maxHeight);
+        Bitmap res = mLruCache.get(key);
+        if (res != null) return res;
+        ThumbnailDiskCache diskCache = mDiskCache;
+        if (diskCache != null) {
+            res = diskCache.getThumbnail(bitmapFile, maxWidth, maxHeight, null);
+        } else {
+            res = BitmapUtil.createThumbnail(bitmapFile, maxWidth, maxHeight);
+        }
+        if (res != null) {
+            mLruCache.put(key, res);
+            MemoryPressureRegistry.getInstance().checkRetainedBytes();
+        }
+        return res;
+    }
+
+    /**
+     * Returns the number of bytes currently used by the cached bitmaps.
+     */
+    public int size() {
+        return mLruCache.size();
+    }
+
+    /**
+     * Evicts the least recently used bitmaps until the cache uses at most the given number of bytes.
+     */
+    public void trimToSize(int maxSize) {
+        mLruCache.trimToSize(maxSize);
+    }
+
+    /**
+     * Evicts all the bitmaps.
+     */
+    public void evictAll() {
+        mLruCache.evictAll();
+    }
+
+    @Override
+    public long getRetainedBytes() {
+        return size();
+    }
+
+    /**
+     * Evicts the given fraction of the cached bitmaps (in bytes), the least recently used first.
+     */
+    @Override
+    public void trim(float fraction) {
+        trimToSize((int) (size() * (1f - fraction)));
+    }
+
+    /**
+     * Registers this cache to be trimmed when the system asks the application to trim its memory.<br/>
+     * Not needed if the {@link MemoryPressureRegistry} is registered, since the cache adds itself to it.
+     */
+    public void register(Context context) {
+        context.getApplicationContext().registerComponentCallbacks(this);
+    }
+
+    /**
+     * Stops trimming this cache when the system asks the application to trim its memory.
+     */
+    public void unregister(Context context) {
+        context.getApplicationContext().unregisterComponentCallbacks(this);
+    }
+
+
+    /*
+     * ComponentCallbacks2 implementation.
+     */
+
+    @Override
+    public void onTrimMemory(int level) {
+        Log.d(TAG, "onTrimMemory level=" + level + " size=" + size());
+        if (level >= TRIM_MEMORY_MODERATE) {
+            // The process is likely to be killed soon: free everything
+            evictAll();
+        } else if (level >= TRIM_MEMORY_BACKGROUND) {
+            trimToSize(mMaxSize / 4);
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            // Either the UI is not visible anymore, or the system is running low on memory
+            trimToSize(mMaxSize / 2);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        evictAll();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {}
+}
@@ -0,0 +1,231 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.util.bitmap;
+
+import java.util.HashMap;
+import java.util.Iterator;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+import org.jraf.android.util.pool.MemoryPressureRegistry;
+import org.jraf.android.util.pool.Pools;
+import org.jraf.android.util.pool.Trimmable;
+
+/**
+ * Pool of mutable bitmaps which can be reused to decode other images, using {@link BitmapFactory.Options#inBitmap}, instead of allocating new pixel
+ * buffers.<br/>
+ * Released bitmaps are kept in {@link Pools.SimplePool}s counting their allocation byte count, one per size bucket:
+ * <ul>
+ * <li>On API level 19+, a bitmap can be reused for any image needing at most its allocation byte count, so the buckets are powers of two of the allocation
+ * byte count.</li>
+ * <li>On API level 11 to 18, a bitmap can only be reused for an image with the same dimensions and config, decoded with an {@code inSampleSize} of 1, so
+ * there is one bucket per dimensions and config.</li>
+ * </ul>
+ * The total number of bytes kept by the pool is bounded, and so is the number of bitmaps in each bucket: bitmaps released when the pool or their bucket
+ * is full are recycled.<br/>
+ * The pool adds itself to the {@link MemoryPressureRegistry}, to be trimmed when memory is low.<br/>
+ * This class is thread safe.
+ */
+public class BitmapPool implements Trimmable {
+    private static final int MAX_BUCKET_POOL_SIZE = 16;
+
+    private static final Pools.Sizer<Bitmap> SIZER = new Pools.Sizer<Bitmap>() {
+        @Override
+        public long sizeOf(Bitmap bitmap) {
+            return BitmapUtil.getAllocationByteCount(bitmap);
+        }
+    };
+
+    private final int mMaxSize;
+    private final HashMap<Object, Pools.SimplePool<Bitmap>> mBuckets = new HashMap<>();
+
+    /**
+     * Creates a pool keeping at most the given number of bytes of bitmaps.
+     *
+     * @param maxSize The maximum number of bytes used by the pixels of the pooled bitmaps.
+     */
+    public BitmapPool(int maxSize) {
+        mMaxSize = maxSize;
+        MemoryPressureRegistry.getInstance().add(this);
+    }
+
+    private static boolean isReusableForAnySize() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+    }
+
+    /**
+     * Returns the smallest power of two greater than or equal to the given number of bytes.
+     */
+    private static int getBucket(int byteCount) {
+        int res = Integer.highestOneBit(byteCount);
+        return res == byteCount ? res : res << 1;
+    }
+
+    private static Object getExactKey(int width, int height, Bitmap.Config config) {
+        return width + "x" + height + ":" + config;
+    }
+
+    /**
+     * Returns a pooled bitmap which can be reused to decode an image of the given decoded dimensions and config, if any.<br/>
+     * The returned bitmap is removed from the pool.
+     *
+     * @param width The width of the decoded image (after sampling).
+     * @param height The height of the decoded image (after sampling).
+     * @param config The config of the decoded image.
+     * @return A reusable bitmap, or {@code null}.
+     */
+    public synchronized Bitmap acquire(int width, int height, Bitmap.Config config) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) return null;
+        if (!isReusableForAnySize()) {
+            Pools.SimplePool<Bitmap> bitmaps = mBuckets.get(getExactKey(width, height, config));
+            return bitmaps == null ? null : bitmaps.acquire();
+        }
+        int byteCount = width * height * BitmapUtil.getBytesPerPixel(config);
+        int bucket = getBucket(byteCount);
+        // The last bitmap released in the bucket may be smaller than needed, bitmaps in the next one are always big enough
+        Bitmap res = acquire(mBuckets.get(bucket), byteCount);
+        if (res == null) res = acquire(mBuckets.get(bucket << 1), byteCount);
+        return res;
+    }
+
+    private static Bitmap acquire(Pools.SimplePool<Bitmap> bitmaps, int minByteCount) {
+        if (bitmaps == null) return null;
+        Bitmap res = bitmaps.acquire();
+        if (res == null || BitmapUtil.getAllocationByteCount(res) >= minByteCount) return res;
+        // Too small: give it back, there is room since it has just been taken
+        bitmaps.release(res);
+        return null;
+    }
+
+    /**
+     * Sets {@link BitmapFactory.Options#inBitmap} to a pooled bitmap which can be reused to decode an image with the given options, if any, and sets
+     * {@link BitmapFactory.Options#inMutable} to {@code true} so that the decoded bitmap can be released to the pool later.
+     *
+     * @param options The options which will be used to decode the image. Its {@code inSampleSize} and {@code inPreferredConfig} must already be set.
+     * @param width The width of the original image.
+     * @param height The height of the original image.
+     * @return The bitmap set in {@code options.inBitmap}, or {@code null}.
+     */
+    public Bitmap prepareOptions(BitmapFactory.Options options, int width, int height) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) return null;
+        options.inMutable = true;
+        int sampleSize = Math.max(options.inSampleSize, 1);
+        if (!isReusableForAnySize() && sampleSize != 1) return null;
+        Bitmap.Config config = options.inPreferredConfig == null ? Bitmap.Config.ARGB_8888 : options.inPreferredConfig;
+        // Round up, to be on the safe side (some decoders round up, others down)
+        Bitmap res = acquire((width + sampleSize - 1) / sampleSize, (height + sampleSize - 1) / sampleSize, config);
+        options.inBitmap = res;
+        return res;
+    }
+
+    /**
+     * Gives back a bitmap which is not used anymore, so it can be reused.<br/>
+     * If the bitmap is not mutable, or the pool or its bucket is full, it is recycled instead.<br/>
+     * The caller must not use the bitmap after this call.
+     *
+     * @param bitmap The bitmap to give back.
+     * @return Whether the bitmap was put in the pool.
+     */
+    public boolean release(Bitmap bitmap) {
+        if (!put(bitmap)) return false;
+        // Outside of the lock, since this may trim this pool
+        MemoryPressureRegistry.getInstance().checkRetainedBytes();
+        return true;
+    }
+
+    private synchronized boolean put(Bitmap bitmap) {
+        if (bitmap.isRecycled()) return false;
+        int byteCount = BitmapUtil.getAllocationByteCount(bitmap);
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB || !bitmap.isMutable() || getRetainedBytes() + byteCount > mMaxSize) {
+            bitmap.recycle();
+            return false;
+        }
+        Object key;
+        int minByteCount;
+        if (isReusableForAnySize()) {
+            int bucket = getBucket(byteCount);
+            key = bucket;
+            minByteCount = (bucket >> 1) + 1;
+        } else {
+            key = getExactKey(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+            minByteCount = byteCount;
+        }
+        Pools.SimplePool<Bitmap> bitmaps = mBuckets.get(key);
+        if (bitmaps == null) {
+            // No more bitmaps than the whole pool could hold, which keeps the pools of the small buckets small
+            int maxPoolSize = Math.min(MAX_BUCKET_POOL_SIZE, Math.max(1, mMaxSize / minByteCount));
+            bitmaps = new Pools.SimplePool<>(maxPoolSize, false, SIZER);
+            mBuckets.put(key, bitmaps);
+        }
+        if (!bitmaps.release(bitmap)) {
+            bitmap.recycle();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of bytes used by the pixels of the pooled bitmaps.
+     */
+    public synchronized int size() {
+        return (int) getRetainedBytes();
+    }
+
+    @Override
+    public synchronized long getRetainedBytes() {
+        long res = 0;
+        for (Pools.SimplePool<Bitmap> bitmaps : mBuckets.values()) {
+            res += bitmaps.getRetainedBytes();
+        }
+        return res;
+    }
+
+    /**
+     * Recycles the given fraction of the pooled bitmaps (in bytes), the most recently released first in each bucket.
+     */
+    @Override
+    public synchronized void trim(float fraction) {
+        long size = getRetainedBytes();
+        long targetSize = (long) (size * (1f - fraction));
+        for (Iterator<Pools.SimplePool<Bitmap>> i = mBuckets.values().iterator(); i.hasNext() && size > targetSize; ) {
+            Pools.SimplePool<Bitmap> bitmaps = i.next();
+            Bitmap bitmap;
+            while (size > targetSize && (bitmap = bitmaps.acquire()) != null) {
+                size -= BitmapUtil.getAllocationByteCount(bitmap);
+                bitmap.recycle();
+            }
+            if (bitmaps.getRetainedBytes() == 0) i.remove();
+        }
+    }
+
+    /**
+     * Recycles all the pooled bitmaps.
+     */
+    public synchronized void clear() {
+        trim(1f);
+        mBuckets.clear();
+    }
+}
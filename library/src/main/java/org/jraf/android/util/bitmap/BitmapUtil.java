@@ -25,99 +25,242 @@
 package org.jraf.android.util.bitmap;
 
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import android.annotation.SuppressLint;
+import android.annotation.TargetApi;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
 import android.graphics.Matrix;
+import android.graphics.Paint;
 import android.graphics.Point;
 import android.media.ExifInterface;
+import android.os.Build;
 import android.util.Log;
 
 import org.jraf.android.util.Constants;
+import org.jraf.android.util.io.IoUtil;
 
 public class BitmapUtil {
     private static final String TAG = Constants.TAG + BitmapUtil.class.getSimpleName();
 
+    private static final ExifCache sExifCache = new ExifCache(ExifCache.DEFAULT_MAX_ENTRIES);
+
     /**
-     * Call {@link BitmapFactory#decodeFile(String, android.graphics.BitmapFactory.Options)}, retrying up to 4 times with an increased
-     * {@link android.graphics.BitmapFactory.Options#inSampleSize} if an {@link OutOfMemoryError} occurs.<br/>
-     * If after trying 4 times the file still could not be decoded, {@code null} is returned.
+     * Call {@link BitmapFactory#decodeFile(String, android.graphics.BitmapFactory.Options)}, using the {@link DecodePlanner#getDefault() default planner} to
+     * increase {@link android.graphics.BitmapFactory.Options#inSampleSize} (and use {@link Bitmap.Config#RGB_565} for JPEGs) beforehand if the decoded
+     * bitmap would not fit in memory.<br/>
+     * If {@link android.graphics.BitmapFactory.Options#inBitmap} is set but cannot be reused for this image, it is set to {@code null} and the file is decoded
+     * into a new bitmap.
      * 
      * @param imageFile The file to be decoded.
      * @param options The Options object passed to {@link BitmapFactory#decodeFile(String, android.graphics.BitmapFactory.Options)} (can be {@code null}).
      * @return The decoded bitmap, or {@code null} if it could not be decoded.
      */
     public static Bitmap tryDecodeFile(File imageFile, BitmapFactory.Options options) {
+        return tryDecodeFile(imageFile, options, DecodePlanner.getDefault());
+    }
+
+    /**
+     * Call {@link BitmapFactory#decodeFile(String, android.graphics.BitmapFactory.Options)}, using the given planner to fit the decoded bitmap in its budget.
+     * 
+     * @param imageFile The file to be decoded.
+     * @param options The Options object passed to {@link BitmapFactory#decodeFile(String, android.graphics.BitmapFactory.Options)} (can be {@code null}).
+     * @param decodePlanner The planner to use.
+     * @return The decoded bitmap, or {@code null} if it could not be decoded.
+     * @see #tryDecodeFile(File, BitmapFactory.Options)
+     */
+    public static Bitmap tryDecodeFile(File imageFile, BitmapFactory.Options options, DecodePlanner decodePlanner) {
         Log.d(TAG, "tryDecodeFile imageFile=" + imageFile);
-        int trials = 0;
-        while (trials < 4) {
-            try {
-                Bitmap res = BitmapFactory.decodeFile(imageFile.getPath(), options);
-                if (res == null) {
-                    Log.d(TAG, "tryDecodeFile res=null");
+        if (options == null) options = new BitmapFactory.Options();
+        // Open the file once: the header is parsed, and the image decoded, from the same descriptor
+        FileInputStream in;
+        try {
+            in = new FileInputStream(imageFile);
+        } catch (FileNotFoundException e) {
+            Log.w(TAG, "tryDecodeFile Could not open file, returning null", e);
+            return null;
+        }
+        try {
+            if (!options.inJustDecodeBounds) {
+                ImageHeader header = readHeader(in);
+                if (header != null) {
+                    decodePlanner.plan(options, header.width, header.height, ImageHeader.MIME_TYPE_JPEG.equals(header.mimeType));
                 } else {
-                    Log.d(TAG, "tryDecodeFile res width=" + res.getWidth() + " height=" + res.getHeight());
-                }
-                return res;
-            } catch (OutOfMemoryError e) {
-                if (options == null) {
-                    options = new BitmapFactory.Options();
-                    options.inSampleSize = 1;
+                    // Not a format known by ImageHeader: let BitmapFactory measure it
+                    BitmapFactory.Options boundsOptions = new BitmapFactory.Options();
+                    boundsOptions.inJustDecodeBounds = true;
+                    decodeOnce(in, boundsOptions);
+                    if (boundsOptions.outWidth <= 0 || boundsOptions.outHeight <= 0) {
+                        Log.w(TAG, "tryDecodeFile Could not decode file bounds, returning null");
+                        return null;
+                    }
+                    decodePlanner.plan(options, boundsOptions.outWidth, boundsOptions.outHeight, ImageHeader.MIME_TYPE_JPEG.equals(boundsOptions.outMimeType));
                 }
-                Log.w(TAG, "tryDecodeFile Could not decode file with inSampleSize=" + options.inSampleSize + ", try with inSampleSize="
-                        + (options.inSampleSize + 1), e);
-                options.inSampleSize++;
-                trials++;
             }
+            return decode(in, options);
+        } finally {
+            IoUtil.closeSilently(in);
+        }
+    }
+
+    /**
+     * Decodes the file opened by the given stream, from its beginning, falling back to a new bitmap if {@code options.inBitmap} cannot be reused.
+     */
+    private static Bitmap decode(FileInputStream in, BitmapFactory.Options options) {
+        Bitmap res;
+        try {
+            res = decodeOnce(in, options);
+        } catch (IllegalArgumentException e) {
+            if (options.inBitmap == null) throw e;
+            // The bitmap to reuse was not suitable: decode into a new bitmap
+            Log.d(TAG, "decode Could not reuse inBitmap, decoding into a new bitmap", e);
+            options.inBitmap = null;
+            res = decodeOnce(in, options);
         }
-        Log.w(TAG, "tryDecodeFile Could not decode the file after " + trials + " trials, returning null");
-        return null;
+        if (res == null) {
+            Log.d(TAG, "decode res=null");
+        } else {
+            Log.d(TAG, "decode res width=" + res.getWidth() + " height=" + res.getHeight());
+        }
+        return res;
+    }
+
+    /**
+     * Decodes the file opened by the given stream, from its beginning, using its descriptor (which is faster than decoding from a stream).
+     */
+    private static Bitmap decodeOnce(FileInputStream in, BitmapFactory.Options options) {
+        FileDescriptor fd;
+        try {
+            // The header may have been read from it
+            in.getChannel().position(0);
+            fd = in.getFD();
+        } catch (IOException e) {
+            Log.w(TAG, "decodeOnce Could not rewind file", e);
+            return null;
+        }
+        return BitmapFactory.decodeFileDescriptor(fd, null, options);
+    }
+
+    /**
+     * Decodes the given file directly into a mutable bitmap (using {@link android.graphics.BitmapFactory.Options#inMutable}), which is cheaper than decoding
+     * it and then calling {@link #asMutable(Bitmap)}.
+     *
+     * @param imageFile The file to be decoded.
+     * @param options The Options object to use (can be {@code null}).
+     * @return The decoded mutable bitmap, or {@code null} if it could not be decoded.
+     * @see #tryDecodeFile(File, BitmapFactory.Options)
+     */
+    public static Bitmap decodeMutableFile(File imageFile, BitmapFactory.Options options) {
+        if (options == null) options = new BitmapFactory.Options();
+        options.inMutable = true;
+        return tryDecodeFile(imageFile, options);
     }
 
     /**
      * Returns an mutable version of the given bitmap.<br/>
-     * The given bitmap is recycled. A temporary file is used (using {@link File#createTempFile(String, String)}) to avoid allocating twice the needed memory.
+     * If the given bitmap is already mutable, it is returned as is. Otherwise it is recycled: its pixels are copied to a temporary buffer on the Java heap,
+     * which avoids a round trip to the disk, but needs as much free heap as the pixels for the duration of the call. If the buffer cannot be allocated, a
+     * temporary file (using {@link File#createTempFile(String, String)}) is used instead, so that the pixels are never held twice on the heap.<br/>
+     * When the bitmap comes from a file, consider using {@link #decodeMutableFile(File, BitmapFactory.Options)} instead.
      */
     public static Bitmap asMutable(Bitmap bitmap) throws IOException {
+        if (bitmap.isMutable()) return bitmap;
+        // Use the actual size of the pixels, which depends on the config
+        int byteCount = bitmap.getRowBytes() * bitmap.getHeight();
+        ByteBuffer buffer = allocatePixelBuffer(byteCount);
+        // Not kept after the call: a big array held between calls would only be a waste of heap
+        if (buffer != null) return copyThroughBuffer(bitmap, buffer);
+
         // This is the file going to use temporally to dump the bitmap bytes
         File tmpFile = File.createTempFile(String.valueOf(System.currentTimeMillis()), null);
-        Log.d(TAG, "getImmutable tmpFile=" + tmpFile);
-
-        // Open it as an RandomAccessFile
+        Log.d(TAG, "asMutable Low memory, using tmpFile=" + tmpFile);
         RandomAccessFile randomAccessFile = new RandomAccessFile(tmpFile, "rw");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            MappedByteBuffer mappedBuffer = channel.map(MapMode.READ_WRITE, 0, byteCount);
+            return copyThroughBuffer(bitmap, mappedBuffer);
+        } finally {
+            IoUtil.closeSilently(randomAccessFile);
+            tmpFile.delete();
+        }
+    }
 
-        // Get the width and height of the source bitmap
+    /**
+     * Copies the pixels of the given bitmap to the given buffer, recycles it, and creates a new mutable bitmap from the buffer.
+     */
+    private static Bitmap copyThroughBuffer(Bitmap bitmap, ByteBuffer buffer) {
         int width = bitmap.getWidth();
         int height = bitmap.getHeight();
+        Bitmap.Config config = bitmap.getConfig() == null ? Bitmap.Config.ARGB_8888 : bitmap.getConfig();
 
-        // Dump the bytes to the file.
-        // This assumes the source bitmap is loaded using options.inPreferredConfig = Config.ARGB_8888 (hence the value of 4 bytes per pixel)
-        FileChannel channel = randomAccessFile.getChannel();
-        MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0, width * height * 4);
+        // Dump the bytes to the buffer
+        buffer.clear();
         bitmap.copyPixelsToBuffer(buffer);
 
         // Recycle the source bitmap, this will be no longer used
         bitmap.recycle();
 
-        // Create a new mutable bitmap to load the bitmap from the file
-        bitmap = Bitmap.createBitmap(width, height, bitmap.getConfig());
+        // Create a new mutable bitmap and load it back from the buffer
+        Bitmap res = Bitmap.createBitmap(width, height, config);
+        buffer.rewind();
+        res.copyPixelsFromBuffer(buffer);
+        return res;
+    }
+
+    private static ByteBuffer allocatePixelBuffer(int byteCount) {
+        try {
+            // Not a direct buffer: on ART it would also be on the Java heap, but in a non-movable array
+            return ByteBuffer.allocate(byteCount);
+        } catch (OutOfMemoryError e) {
+            Log.w(TAG, "allocatePixelBuffer Could not allocate a buffer of " + byteCount + " bytes", e);
+            return null;
+        }
+    }
 
-        // Load it back from the temporary buffer
-        buffer.position(0);
-        bitmap.copyPixelsFromBuffer(buffer);
+    /**
+     * Returns the number of bytes used to store the pixels of the given bitmap.<br/>
+     * On API level 19+ this is {@link Bitmap#getAllocationByteCount()}, which can be larger than the byte count if the bitmap was reused for a smaller
+     * image.
+     */
+    public static int getAllocationByteCount(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return getAllocationByteCountKitKat(bitmap);
+        }
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
 
-        // Cleanup
-        channel.close();
-        randomAccessFile.close();
-        tmpFile.delete();
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static int getAllocationByteCountKitKat(Bitmap bitmap) {
+        return bitmap.getAllocationByteCount();
+    }
 
-        return bitmap;
+    /**
+     * Returns the number of bytes used to store a pixel with the given config.
+     */
+    public static int getBytesPerPixel(Bitmap.Config config) {
+        if (config == null) return 4;
+        switch (config) {
+            case ALPHA_8:
+                return 1;
+            case RGB_565:
+            case ARGB_4444:
+                return 2;
+            default:
+                return 4;
+        }
     }
 
     /**
@@ -125,7 +268,7 @@ public class BitmapUtil {
      */
     //@formatter:off
     @SuppressLint("InlinedApi")
-    private static final String[] EXIF_TAGS = new String[] { 
+    static final String[] EXIF_TAGS = new String[] { 
         ExifInterface.TAG_APERTURE,
         ExifInterface.TAG_DATETIME, 
         ExifInterface.TAG_EXPOSURE_TIME,
@@ -148,7 +291,8 @@ public class BitmapUtil {
     //@formatter:on
 
     /**
-     * Copy the EXIF tags from the source image file to the destination image file.
+     * Copy the EXIF tags from the source image file to the destination image file.<br/>
+     * The tags of the source file are read through the {@link #getExifCache() EXIF cache}.
      * 
      * @param sourceFile The existing source JPEG file.
      * @param destFile The existing destination JPEG file.
@@ -156,27 +300,84 @@ public class BitmapUtil {
      */
     public static void copyExifTags(File sourceFile, File destFile) throws IOException {
         Log.d(TAG, "copyExifTags sourceFile=" + sourceFile + " destFile=" + destFile);
-        ExifInterface sourceExifInterface = new ExifInterface(sourceFile.getPath());
-        ExifInterface destExifInterface = new ExifInterface(destFile.getPath());
-        boolean atLeastOne = false;
-        for (String exifTag : EXIF_TAGS) {
-            String value = sourceExifInterface.getAttribute(exifTag);
-            if (value != null) {
-                atLeastOne = true;
-                destExifInterface.setAttribute(exifTag, value);
+        writeExifTags(destFile, sExifCache.getAttributes(sourceFile));
+    }
+
+    /**
+     * Copy the EXIF tags from each source image file to the destination image file at the same index.<br/>
+     * Each source file is parsed only once, and each destination file is written only once, even if it appears several times (in that case the tags of
+     * all its source files are merged, the last ones winning).<br/>
+     * All the pairs are processed even if some of them fail.
+     * 
+     * @param sourceFiles The existing source JPEG files.
+     * @param destFiles The existing destination JPEG files (must have the same length as {@code sourceFiles}).
+     * @throws IOException If EXIF information could not be read or written for at least one pair (the first error is thrown).
+     */
+    public static void copyExifTags(File[] sourceFiles, File[] destFiles) throws IOException {
+        if (sourceFiles.length != destFiles.length) throw new IllegalArgumentException("sourceFiles and destFiles must have the same length");
+        Log.d(TAG, "copyExifTags count=" + sourceFiles.length);
+        IOException error = null;
+        Map<File, Map<String, String>> attributesByDestFile = new LinkedHashMap<>();
+        for (int i = 0; i < sourceFiles.length; i++) {
+            Map<String, String> sourceAttributes;
+            try {
+                sourceAttributes = sExifCache.getAttributes(sourceFiles[i]);
+            } catch (IOException e) {
+                Log.w(TAG, "copyExifTags Could not read " + sourceFiles[i], e);
+                if (error == null) error = e;
+                continue;
+            }
+            Map<String, String> attributes = attributesByDestFile.get(destFiles[i]);
+            if (attributes == null) {
+                attributes = new HashMap<>();
+                attributesByDestFile.put(destFiles[i], attributes);
+            }
+            attributes.putAll(sourceAttributes);
+        }
+        for (Map.Entry<File, Map<String, String>> entry : attributesByDestFile.entrySet()) {
+            try {
+                writeExifTags(entry.getKey(), entry.getValue());
+            } catch (IOException e) {
+                Log.w(TAG, "copyExifTags Could not write " + entry.getKey(), e);
+                if (error == null) error = e;
             }
         }
-        if (atLeastOne) destExifInterface.saveAttributes();
+        if (error != null) throw error;
+    }
+
+    private static void writeExifTags(File destFile, Map<String, String> attributes) throws IOException {
+        if (attributes.isEmpty()) return;
+        ExifInterface destExifInterface = new ExifInterface(destFile.getPath());
+        for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+            destExifInterface.setAttribute(attribute.getKey(), attribute.getValue());
+        }
+        destExifInterface.saveAttributes();
+        // The file may be modified in the same second as it was parsed
+        sExifCache.invalidate(destFile);
     }
 
     /**
-     * Retrieves the dimensions of the bitmap in the given file.
+     * Returns the cache used by {@link #getExifRotation(File)} and {@link #copyExifTags(File, File)}.
+     */
+    public static ExifCache getExifCache() {
+        return sExifCache;
+    }
+
+    /**
+     * Retrieves the dimensions of the bitmap in the given file.<br/>
+     * JPEG, PNG, GIF and WebP headers are parsed directly with {@link ImageHeader}, other formats are measured by {@link BitmapFactory}.
      * 
      * @param bitmapFile The file containing the bitmap to measure.
      * @return A {@code Point} containing the width in {@code x} and the height in {@code y}.
      */
     public static Point getDimensions(File bitmapFile) {
         Log.d(TAG, "getDimensions bitmapFile=" + bitmapFile);
+        ImageHeader header = readHeader(bitmapFile);
+        if (header != null) {
+            Point res = new Point(header.width, header.height);
+            Log.d(TAG, "getDimensions res=" + res);
+            return res;
+        }
         BitmapFactory.Options options = new BitmapFactory.Options();
         options.inJustDecodeBounds = true;
         BitmapFactory.decodeFile(bitmapFile.getPath(), options);
@@ -188,13 +389,25 @@ public class BitmapUtil {
     }
 
     /**
-     * Retrieves the rotation in the EXIF tags of the given file.
+     * Retrieves the rotation in the EXIF tags of the given file.<br/>
+     * JPEG, PNG, GIF and WebP headers are parsed directly with {@link ImageHeader}, other formats are read by {@link ExifInterface}. The result is kept in the
+     * {@link #getExifCache() EXIF cache}.
      * 
      * @param bitmapFile The file from which to retrieve the info.
      * @return The rotation in degrees, or {@code 0} if there was no EXIF tags in the given file, or it could not be read.
      */
     public static int getExifRotation(File bitmapFile) {
+        return sExifCache.getRotation(bitmapFile);
+    }
+
+    static int readExifRotation(File bitmapFile) {
         Log.d(TAG, "getExifRotation bitmapFile=" + bitmapFile);
+        ImageHeader header = readHeader(bitmapFile);
+        if (header != null) {
+            int res = header.getRotation();
+            Log.d(TAG, "getExifRotation res=" + res);
+            return res;
+        }
         ExifInterface exifInterface;
         try {
             exifInterface = new ExifInterface(bitmapFile.getPath());
@@ -223,7 +436,8 @@ public class BitmapUtil {
     /**
      * Creates a small version of the bitmap inside the given file, using the given max dimensions.<br/>
      * The resulting bitmap's dimensions will always be smaller than the given max dimensions.<br/>
-     * The rotation EXIF tag of the given file, if present, is used to return a thumbnail that won't be rotated.
+     * The rotation EXIF tag of the given file, if present, is used to return a thumbnail that won't be rotated.<br/>
+     * The file is opened only once, and the scaling and rotation are done in a single draw.
      * 
      * @param bitmapFile The file containing the bitmap to create a thumbnail from.
      * @param maxWidth The wanted maximum width of the resulting thumbnail.
@@ -231,53 +445,177 @@ public class BitmapUtil {
      * @return A small version of the bitmap, or (@code null} if the given bitmap could not be decoded.
      */
     public static Bitmap createThumbnail(File bitmapFile, int maxWidth, int maxHeight) {
+        return createThumbnail(bitmapFile, maxWidth, maxHeight, null);
+    }
+
+    /**
+     * Creates a small version of the bitmap inside the given file, using the given max dimensions, reusing the bitmaps of the given pool when possible.<br/>
+     * The resulting bitmap is mutable, and can be released to the pool when it is not used anymore.
+     *
+     * @param bitmapFile The file containing the bitmap to create a thumbnail from.
+     * @param maxWidth The wanted maximum width of the resulting thumbnail.
+     * @param maxHeight The wanted maximum height of the resulting thumbnail.
+     * @param bitmapPool The pool to take bitmaps from, and to give intermediate bitmaps back to (can be {@code null}).
+     * @return A small version of the bitmap, or (@code null} if the given bitmap could not be decoded.
+     * @see #createThumbnail(File, int, int)
+     */
+    public static Bitmap createThumbnail(File bitmapFile, int maxWidth, int maxHeight, BitmapPool bitmapPool) {
         Log.d(TAG, "createThumbnail imageFile=" + bitmapFile + " maxWidth=" + maxWidth + " maxHeight=" + maxHeight);
-        // Get exif rotation
-        int rotation = getExifRotation(bitmapFile);
+        // Open the file once: the header is parsed, and the image decoded, from the same descriptor
+        FileInputStream in;
+        try {
+            in = new FileInputStream(bitmapFile);
+        } catch (FileNotFoundException e) {
+            Log.w(TAG, "createThumbnail Could not open file, returning null", e);
+            return null;
+        }
+        try {
+            return createThumbnail(in, maxWidth, maxHeight, bitmapPool);
+        } finally {
+            IoUtil.closeSilently(in);
+        }
+    }
 
-        // Determine optimal inSampleSize
-        Point originalDimensions = getDimensions(bitmapFile);
-        int width = originalDimensions.x;
-        int height = originalDimensions.y;
-        int inSampleSize = 1;
+    private static Bitmap createThumbnail(FileInputStream in, int maxWidth, int maxHeight, BitmapPool bitmapPool) {
+        // Get exif rotation and original dimensions from the header
+        ImageHeader header = readHeader(in);
+        int rotation = header == null ? 0 : header.getRotation();
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        int originalWidth;
+        int originalHeight;
+        if (header != null) {
+            originalWidth = header.width;
+            originalHeight = header.height;
+        } else {
+            // Not a format known by ImageHeader: let BitmapFactory parse it
+            options.inJustDecodeBounds = true;
+            decodeOnce(in, options);
+            originalWidth = options.outWidth;
+            originalHeight = options.outHeight;
+        }
+        if (originalWidth <= 0 || originalHeight <= 0) {
+            Log.w(TAG, "createThumbnail Could not decode file bounds, returning null");
+            return null;
+        }
+        int width = originalWidth;
+        int height = originalHeight;
         if (rotation == 90 || rotation == 270) {
             // In these 2 cases we invert the measured dimensions because the bitmap is rotated
-            width = originalDimensions.y;
-            height = originalDimensions.x;
+            width = originalHeight;
+            height = originalWidth;
         }
-        int widthRatio = width / maxWidth;
-        int heightRatio = height / maxHeight;
 
-        // Take the max, because we don't care if one of the returned thumbnail's side is smaller
-        // than the specified maxWidth/maxHeight.
-        inSampleSize = Math.max(widthRatio, heightRatio);
+        // Dimensions of the thumbnail, keeping the aspect ratio
+        float scale = Math.min(1f, Math.min((float) maxWidth / width, (float) maxHeight / height));
+        int thumbnailWidth = Math.max(1, Math.round(width * scale));
+        int thumbnailHeight = Math.max(1, Math.round(height * scale));
+
+        // Biggest power of 2 inSampleSize keeping the decoded bitmap at least as big as the thumbnail (it is cheap for decoders)
+        int inSampleSize = 1;
+        while (width / (inSampleSize * 2) >= thumbnailWidth && height / (inSampleSize * 2) >= thumbnailHeight) {
+            inSampleSize *= 2;
+        }
         Log.d(TAG, "createThumbnail using inSampleSize=" + inSampleSize);
 
-        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = false;
         options.inSampleSize = inSampleSize;
+        String mimeType = header != null ? header.mimeType : options.outMimeType;
+        DecodePlanner.getDefault().plan(options, originalWidth, originalHeight, ImageHeader.MIME_TYPE_JPEG.equals(mimeType));
+        Bitmap reusedBitmap = null;
+        if (bitmapPool != null) reusedBitmap = bitmapPool.prepareOptions(options, originalWidth, originalHeight);
 
-        Bitmap res = tryDecodeFile(bitmapFile, options);
-        if (res == null) {
+        Bitmap decoded = decode(in, options);
+        if (reusedBitmap != null && decoded != reusedBitmap) {
+            // Not reused after all: give it back
+            bitmapPool.release(reusedBitmap);
+        }
+        if (decoded == null) {
             Log.w(TAG, "createThumbnail Could not decode file, returning null");
             return null;
         }
 
-        // Rotate if necessary
-        if (rotation != 0) {
-            Log.d(TAG, "createThumbnail rotating thumbnail");
-            Matrix matrix = new Matrix();
-            matrix.postRotate(rotation);
-            Bitmap rotatedBitmap = null;
+        // Scale and rotate in a single draw
+        Bitmap res = decoded;
+        boolean rotated = rotation == 90 || rotation == 270;
+        int decodedWidth = rotated ? decoded.getHeight() : decoded.getWidth();
+        int decodedHeight = rotated ? decoded.getWidth() : decoded.getHeight();
+        if (rotation != 0 || decodedWidth != thumbnailWidth || decodedHeight != thumbnailHeight) {
             try {
-                rotatedBitmap = Bitmap.createBitmap(res, 0, 0, res.getWidth(), res.getHeight(), matrix, false);
-                res.recycle();
-                res = rotatedBitmap;
+                res = drawTransformed(decoded, rotation, thumbnailWidth, thumbnailHeight, bitmapPool);
+                if (bitmapPool != null) {
+                    bitmapPool.release(decoded);
+                } else {
+                    decoded.recycle();
+                }
             } catch (OutOfMemoryError exception) {
-                Log.w(TAG, "createThumbnail Could not rotate bitmap, keeping original orientation", exception);
+                Log.w(TAG, "createThumbnail Could not scale or rotate bitmap, keeping the decoded bitmap", exception);
             }
         }
         Log.d(TAG, "createThumbnail res width=" + res.getWidth() + " height=" + res.getHeight());
 
         return res;
     }
-}
\ No newline at end of file
+
+    /**
+     * Draws the given bitmap, rotated by the given angle and scaled to the given dimensions, into a new (or pooled) bitmap.
+     */
+    private static Bitmap drawTransformed(Bitmap bitmap, int rotation, int width, int height, BitmapPool bitmapPool) {
+        Bitmap.Config config = bitmap.getConfig() == null ? Bitmap.Config.ARGB_8888 : bitmap.getConfig();
+        Bitmap res = null;
+        if (bitmapPool != null) {
+            res = bitmapPool.acquire(width, height, config);
+            if (res != null) {
+                if (res.getWidth() != width || res.getHeight() != height || res.getConfig() != config) reconfigureKitKat(res, width, height, config);
+                res.eraseColor(0);
+            }
+        }
+        if (res == null) res = Bitmap.createBitmap(width, height, config);
+        // Otherwise an ARGB_8888 thumbnail of an opaque image would be seen as having alpha
+        res.setHasAlpha(bitmap.hasAlpha());
+
+        boolean rotated = rotation == 90 || rotation == 270;
+        Matrix matrix = new Matrix();
+        // Scale to the dimensions before rotation
+        matrix.postScale((float) (rotated ? height : width) / bitmap.getWidth(), (float) (rotated ? width : height) / bitmap.getHeight());
+        matrix.postRotate(rotation);
+        // Move the rotated bitmap back into the visible area
+        switch (rotation) {
+            case 90:
+                matrix.postTranslate(width, 0);
+                break;
+            case 180:
+                matrix.postTranslate(width, height);
+                break;
+            case 270:
+                matrix.postTranslate(0, height);
+                break;
+        }
+        new Canvas(res).drawBitmap(bitmap, matrix, new Paint(Paint.FILTER_BITMAP_FLAG));
+        return res;
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static void reconfigureKitKat(Bitmap bitmap, int width, int height, Bitmap.Config config) {
+        // Only KitKat+ pools hand out bitmaps of a different size
+        bitmap.reconfigure(width, height, config);
+    }
+
+    private static ImageHeader readHeader(FileInputStream in) {
+        try {
+            return ImageHeader.read(in);
+        } catch (IOException e) {
+            Log.w(TAG, "readHeader Could not read header", e);
+            return null;
+        }
+    }
+
+    private static ImageHeader readHeader(File file) {
+        try {
+            return ImageHeader.read(file);
+        } catch (IOException e) {
+            Log.w(TAG, "readHeader Could not read " + file, e);
+            return null;
+        }
+    }
+
+}
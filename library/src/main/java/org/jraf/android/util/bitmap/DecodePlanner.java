@@ -0,0 +1,161 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.util.bitmap;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.util.Log;
+
+import org.jraf.android.util.Constants;
+
+/**
+ * Chooses the {@link BitmapFactory.Options#inSampleSize} and {@link BitmapFactory.Options#inPreferredConfig} of a decode before it happens, so that the
+ * decoded bitmap fits in a memory budget.<br/>
+ * <br/>
+ * The number of bytes of the decoded bitmap is computed from the dimensions of the image. If it doesn't fit in the budget with the requested options,
+ * {@link Bitmap.Config#RGB_565} is used instead of {@link Bitmap.Config#ARGB_8888} for opaque images (if allowed), then the sample size is doubled
+ * until it fits.<br/>
+ * The budget is either a fixed number of bytes, or a fraction of the heap available when the decode is planned.<br/>
+ * <br/>
+ * Note: on API level 26+, the pixels of bitmaps are allocated in native memory, not in the Java heap, so the heap is only a proxy of how much memory the
+ * application can reasonably use. On these levels, a heap fraction budget is a fraction of the maximum heap size, regardless of how much of it is used.
+ */
+public class DecodePlanner {
+    private static final String TAG = Constants.TAG + DecodePlanner.class.getSimpleName();
+
+    /**
+     * The fraction of the available heap used by {@link #getDefault()}.
+     */
+    public static final float DEFAULT_HEAP_FRACTION = .5f;
+
+    private static volatile DecodePlanner sDefault = newHeapFraction(DEFAULT_HEAP_FRACTION, true);
+
+    private final long mMaxBytes;
+    private final float mHeapFraction;
+    private final boolean mAllowRgb565;
+
+    private DecodePlanner(long maxBytes, float heapFraction, boolean allowRgb565) {
+        mMaxBytes = maxBytes;
+        mHeapFraction = heapFraction;
+        mAllowRgb565 = allowRgb565;
+    }
+
+    /**
+     * Creates a planner with a fixed budget.
+     *
+     * @param maxBytes The maximum number of bytes of a decoded bitmap.
+     * @param allowRgb565 Whether {@link Bitmap.Config#RGB_565} can be used for opaque images which don't fit in the budget otherwise.
+     */
+    public static DecodePlanner newFixed(long maxBytes, boolean allowRgb565) {
+        if (maxBytes <= 0) throw new IllegalArgumentException("maxBytes must be > 0");
+        return new DecodePlanner(maxBytes, 0, allowRgb565);
+    }
+
+    /**
+     * Creates a planner with a budget which is a fraction of the heap available at the time of each decode (of the maximum heap size on API level 26+).
+     *
+     * @param heapFraction The fraction of the available heap (between 0 and 1).
+     * @param allowRgb565 Whether {@link Bitmap.Config#RGB_565} can be used for opaque images which don't fit in the budget otherwise.
+     */
+    public static DecodePlanner newHeapFraction(float heapFraction, boolean allowRgb565) {
+        if (heapFraction <= 0 || heapFraction > 1) throw new IllegalArgumentException("heapFraction must be in ]0, 1]");
+        return new DecodePlanner(0, heapFraction, allowRgb565);
+    }
+
+    /**
+     * Returns the planner used by {@link BitmapUtil} when none is given.<br/>
+     * By default, its budget is {@link #DEFAULT_HEAP_FRACTION} of the available heap, and it allows {@link Bitmap.Config#RGB_565}.
+     */
+    public static DecodePlanner getDefault() {
+        return sDefault;
+    }
+
+    /**
+     * Changes the planner used by {@link BitmapUtil} when none is given.
+     */
+    public static void setDefault(DecodePlanner decodePlanner) {
+        if (decodePlanner == null) throw new IllegalArgumentException("decodePlanner must not be null");
+        sDefault = decodePlanner;
+    }
+
+    /**
+     * Returns the current budget, in bytes.
+     */
+    public long getBudget() {
+        if (mMaxBytes > 0) return mMaxBytes;
+        Runtime runtime = Runtime.getRuntime();
+        long available;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            // Bitmaps are not in the heap: its usage is unrelated to the memory they can use
+            available = runtime.maxMemory();
+        } else {
+            available = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        }
+        return (long) (available * mHeapFraction);
+    }
+
+    /**
+     * Returns the number of bytes of the bitmap resulting from decoding an image with the given dimensions, sample size and config.
+     */
+    public static long getByteCount(int width, int height, int sampleSize, Bitmap.Config config) {
+        // Decoders round the sample size down to a power of 2, and some of them round the dimensions up
+        int effectiveSampleSize = Integer.highestOneBit(Math.max(sampleSize, 1));
+        long decodedWidth = (width + effectiveSampleSize - 1) / effectiveSampleSize;
+        long decodedHeight = (height + effectiveSampleSize - 1) / effectiveSampleSize;
+        return decodedWidth * decodedHeight * BitmapUtil.getBytesPerPixel(config);
+    }
+
+    /**
+     * Updates the given options so that decoding an image with the given dimensions fits in the budget.<br/>
+     * The sample size of the options is never decreased, and their config is only changed from {@link Bitmap.Config#ARGB_8888} (or {@code null}) to
+     * {@link Bitmap.Config#RGB_565}.
+     *
+     * @param options The options which will be used to decode the image.
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param opaque Whether the image is known to have no transparency (for instance a JPEG).
+     * @return The number of bytes of the planned bitmap.
+     */
+    public long plan(BitmapFactory.Options options, int width, int height, boolean opaque) {
+        long budget = getBudget();
+        int sampleSize = Integer.highestOneBit(Math.max(options.inSampleSize, 1));
+        Bitmap.Config config = options.inPreferredConfig == null ? Bitmap.Config.ARGB_8888 : options.inPreferredConfig;
+        long byteCount = getByteCount(width, height, sampleSize, config);
+        if (byteCount > budget && mAllowRgb565 && opaque && config == Bitmap.Config.ARGB_8888) {
+            // Halve the size without losing any resolution
+            config = Bitmap.Config.RGB_565;
+            options.inPreferredConfig = config;
+            byteCount = getByteCount(width, height, sampleSize, config);
+        }
+        while (byteCount > budget && (width / sampleSize > 1 || height / sampleSize > 1)) {
+            sampleSize *= 2;
+            byteCount = getByteCount(width, height, sampleSize, config);
+        }
+        if (sampleSize > options.inSampleSize) options.inSampleSize = sampleSize;
+        Log.d(TAG, "plan width=" + width + " height=" + height + " budget=" + budget + " -> inSampleSize=" + options.inSampleSize + " config=" + config
+                + " byteCount=" + byteCount);
+        return byteCount;
+    }
+}
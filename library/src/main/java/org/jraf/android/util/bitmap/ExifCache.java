@@ -0,0 +1,129 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.util.bitmap;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import android.media.ExifInterface;
+import android.util.LruCache;
+
+/**
+ * Memory cache of the EXIF metadata of image files, so that the same file is not parsed again.<br/>
+ * Entries are identified by the path and last modification time of their file, so a modified file is parsed again. The rotation is read on its own
+ * (cheaply, with {@link ImageHeader} when possible), and the attributes copied by {@link BitmapUtil#copyExifTags(File, File)} are read together, the first
+ * time they are needed.<br/>
+ * This class is thread safe.
+ */
+public class ExifCache {
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+
+    private final LruCache<String, Entry> mEntries;
+
+    private static class Entry {
+        private final long mLastModified;
+        private int mRotation = -1;
+        private Map<String, String> mAttributes;
+
+        private Entry(long lastModified) {
+            mLastModified = lastModified;
+        }
+    }
+
+    /**
+     * Creates a cache keeping the metadata of at most the given number of files.
+     */
+    public ExifCache(int maxEntries) {
+        mEntries = new LruCache<>(maxEntries);
+    }
+
+    private Entry getEntry(File file) {
+        String path = file.getAbsolutePath();
+        long lastModified = file.lastModified();
+        synchronized (mEntries) {
+            Entry res = mEntries.get(path);
+            if (res == null || res.mLastModified != lastModified) {
+                res = new Entry(lastModified);
+                mEntries.put(path, res);
+            }
+            return res;
+        }
+    }
+
+    /**
+     * Returns the rotation in the EXIF tags of the given file, parsing it if needed.
+     *
+     * @see BitmapUtil#getExifRotation(File)
+     */
+    public int getRotation(File file) {
+        Entry entry = getEntry(file);
+        synchronized (entry) {
+            if (entry.mRotation == -1) entry.mRotation = BitmapUtil.readExifRotation(file);
+            return entry.mRotation;
+        }
+    }
+
+    /**
+     * Returns the EXIF attributes of the given file copied by {@link BitmapUtil#copyExifTags(File, File)}, parsing it if needed.
+     *
+     * @return An unmodifiable map of the tags present in the file to their values.
+     * @throws IOException If the EXIF information could not be read.
+     */
+    public Map<String, String> getAttributes(File file) throws IOException {
+        Entry entry = getEntry(file);
+        synchronized (entry) {
+            if (entry.mAttributes == null) {
+                ExifInterface exifInterface = new ExifInterface(file.getPath());
+                Map<String, String> attributes = new HashMap<>();
+                for (String exifTag : BitmapUtil.EXIF_TAGS) {
+                    String value = exifInterface.getAttribute(exifTag);
+                    if (value != null) attributes.put(exifTag, value);
+                }
+                entry.mAttributes = Collections.unmodifiableMap(attributes);
+            }
+            return entry.mAttributes;
+        }
+    }
+
+    /**
+     * Forgets the metadata of the given file, for instance after it has been modified in the same second (its last modification time may not change).
+     */
+    public void invalidate(File file) {
+        synchronized (mEntries) {
+            mEntries.remove(file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Forgets the metadata of all the files.
+     */
+    public void evictAll() {
+        synchronized (mEntries) {
+            mEntries.evictAll();
+        }
+    }
+}
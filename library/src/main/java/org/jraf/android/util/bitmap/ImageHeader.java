@@ -0,0 +1,428 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.util.bitmap;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The information found in the header of a JPEG, PNG, GIF or WebP image: MIME type, dimensions and EXIF orientation.<br/>
+ * <br/>
+ * The header is parsed directly, reading only the few bytes needed through a small buffer: segments and chunks which are not needed are skipped, which
+ * on a file is a seek. This is much cheaper than {@link android.graphics.BitmapFactory} or {@link android.media.ExifInterface} when scanning many files.
+ * <br/>
+ * This class only uses the Java APIs, so it can be used (and tested) on a plain JVM.
+ */
+public class ImageHeader {
+    public static final String MIME_TYPE_JPEG = "image/jpeg";
+    public static final String MIME_TYPE_PNG = "image/png";
+    public static final String MIME_TYPE_GIF = "image/gif";
+    public static final String MIME_TYPE_WEBP = "image/webp";
+
+    /**
+     * Value of {@link #exifOrientation} when there is no orientation in the image (same value as {@code ExifInterface.ORIENTATION_UNDEFINED}).
+     */
+    public static final int ORIENTATION_UNDEFINED = 0;
+
+    private static final int BUFFER_SIZE = 4 * 1024;
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final byte[] PNG_SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+
+    /**
+     * One of the {@code MIME_TYPE_*} constants.
+     */
+    public final String mimeType;
+
+    /**
+     * The width of the image, as stored (before applying the orientation).
+     */
+    public final int width;
+
+    /**
+     * The height of the image, as stored (before applying the orientation).
+     */
+    public final int height;
+
+    /**
+     * The value of the EXIF orientation tag (same values as {@code ExifInterface.ORIENTATION_*}), or {@link #ORIENTATION_UNDEFINED}.
+     */
+    public final int exifOrientation;
+
+    private ImageHeader(String mimeType, int width, int height, int exifOrientation) {
+        this.mimeType = mimeType;
+        this.width = width;
+        this.height = height;
+        this.exifOrientation = exifOrientation;
+    }
+
+    /**
+     * Returns the rotation to apply to display the image correctly, according to its EXIF orientation.
+     *
+     * @return The rotation in degrees: {@code 0}, {@code 90}, {@code 180} or {@code 270}. Flips are ignored.
+     */
+    public int getRotation() {
+        switch (exifOrientation) {
+            case 6: // ORIENTATION_ROTATE_90
+                return 90;
+            case 3: // ORIENTATION_ROTATE_180
+                return 180;
+            case 8: // ORIENTATION_ROTATE_270
+                return 270;
+            default:
+                return 0;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return mimeType + " " + width + "x" + height + " orientation=" + exifOrientation;
+    }
+
+    /**
+     * Reads the header of the given file.
+     *
+     * @param file The image file.
+     * @return The header, or {@code null} if the file is not a JPEG, PNG, GIF or WebP image, or its header is malformed.
+     * @throws IOException If the file could not be read.
+     */
+    public static ImageHeader read(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return read(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads the header at the current position of the given stream.<br/>
+     * Note: the given stream won't be closed, and its position after this call is undefined.
+     *
+     * @param in The stream containing the image.
+     * @return The header, or {@code null} if the stream does not contain a JPEG, PNG, GIF or WebP image, or its header is malformed.
+     * @throws IOException If the stream could not be read.
+     */
+    public static ImageHeader read(InputStream in) throws IOException {
+        Reader reader = new Reader(in);
+        try {
+            int signature = reader.readUnsignedShort();
+            if (signature == 0xFFD8) return readJpeg(reader);
+            if (signature == 0x8950) return readPng(reader);
+            if (signature == 0x4749 /* GI */) return readGif(reader);
+            if (signature == 0x5249 /* RI */) return readWebp(reader);
+            return null;
+        } catch (EOFException e) {
+            // Truncated header
+            return null;
+        }
+    }
+
+
+    /*
+     * JPEG.
+     */
+
+    private static ImageHeader readJpeg(Reader reader) throws IOException {
+        int orientation = ORIENTATION_UNDEFINED;
+        while (true) {
+            // Markers can be preceded by any number of 0xFF fill bytes
+            if (reader.readUnsignedByte() != 0xFF) return null;
+            int marker;
+            do {
+                marker = reader.readUnsignedByte();
+            } while (marker == 0xFF);
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+                // Standalone markers (no length)
+                continue;
+            }
+            if (marker == 0xD9 || marker == 0xDA) {
+                // End of image or start of scan before any frame header
+                return null;
+            }
+            int length = reader.readUnsignedShort() - 2;
+            if (length < 0) return null;
+            if (isStartOfFrame(marker)) {
+                reader.skipFully(1); // Precision
+                int height = reader.readUnsignedShort();
+                int width = reader.readUnsignedShort();
+                return new ImageHeader(MIME_TYPE_JPEG, width, height, orientation);
+            }
+            if (marker == 0xE1 && orientation == ORIENTATION_UNDEFINED && length >= 6 + 8) {
+                // APP1: Exif
+                reader.limit(length);
+                try {
+                    if (reader.readInt() == 0x45786966 /* Exif */ && reader.readUnsignedShort() == 0) {
+                        orientation = readTiffOrientation(reader);
+                    }
+                } catch (LimitReachedException e) {
+                    // Malformed EXIF data: ignore it, the dimensions can still be read
+                }
+                reader.skipToLimit();
+            } else {
+                reader.skipFully(length);
+            }
+        }
+    }
+
+    private static boolean isStartOfFrame(int marker) {
+        // SOF0 to SOF15, except DHT (C4), JPG (C8) and DAC (CC)
+        return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+
+
+    /*
+     * PNG.
+     */
+
+    private static ImageHeader readPng(Reader reader) throws IOException {
+        for (int i = 2; i < PNG_SIGNATURE.length; i++) {
+            if (reader.readUnsignedByte() != (PNG_SIGNATURE[i] & 0xFF)) return null;
+        }
+        // The first chunk is always IHDR
+        reader.skipFully(4); // Length
+        if (reader.readInt() != 0x49484452 /* IHDR */) return null;
+        int width = reader.readInt();
+        int height = reader.readInt();
+        if (width <= 0 || height <= 0) return null;
+        return new ImageHeader(MIME_TYPE_PNG, width, height, ORIENTATION_UNDEFINED);
+    }
+
+
+    /*
+     * GIF.
+     */
+
+    private static ImageHeader readGif(Reader reader) throws IOException {
+        if (reader.readUnsignedShort() != 0x4638 /* F8 */) return null;
+        int version = reader.readUnsignedShort();
+        if (version != 0x3761 /* 7a */ && version != 0x3961 /* 9a */) return null;
+        // Logical screen descriptor
+        int width = reader.readUnsignedShortLittleEndian();
+        int height = reader.readUnsignedShortLittleEndian();
+        if (width == 0 || height == 0) return null;
+        return new ImageHeader(MIME_TYPE_GIF, width, height, ORIENTATION_UNDEFINED);
+    }
+
+
+    /*
+     * WebP.
+     */
+
+    private static ImageHeader readWebp(Reader reader) throws IOException {
+        if (reader.readUnsignedShort() != 0x4646 /* FF */) return null;
+        reader.skipFully(4); // RIFF size
+        if (reader.readInt() != 0x57454250 /* WEBP */) return null;
+        int chunkType = reader.readInt();
+        int chunkSize = reader.readIntLittleEndian();
+        switch (chunkType) {
+            case 0x56503820: { // "VP8 ": lossy
+                reader.skipFully(3); // Frame tag
+                if (reader.readUnsignedByte() != 0x9D || reader.readUnsignedByte() != 0x01 || reader.readUnsignedByte() != 0x2A) return null;
+                int width = reader.readUnsignedShortLittleEndian() & 0x3FFF;
+                int height = reader.readUnsignedShortLittleEndian() & 0x3FFF;
+                return new ImageHeader(MIME_TYPE_WEBP, width, height, ORIENTATION_UNDEFINED);
+            }
+
+            case 0x5650384C: { // "VP8L": lossless
+                if (reader.readUnsignedByte() != 0x2F) return null;
+                int bits = reader.readIntLittleEndian();
+                int width = (bits & 0x3FFF) + 1;
+                int height = ((bits >> 14) & 0x3FFF) + 1;
+                return new ImageHeader(MIME_TYPE_WEBP, width, height, ORIENTATION_UNDEFINED);
+            }
+
+            case 0x56503858: { // "VP8X": extended
+                int flags = reader.readUnsignedByte();
+                reader.skipFully(3); // Reserved
+                int width = reader.readUnsignedInt24LittleEndian() + 1;
+                int height = reader.readUnsignedInt24LittleEndian() + 1;
+                int orientation = ORIENTATION_UNDEFINED;
+                if ((flags & 0x08) != 0) orientation = readWebpExifOrientation(reader, chunkSize + (chunkSize & 1) - 10);
+                return new ImageHeader(MIME_TYPE_WEBP, width, height, orientation);
+            }
+
+            default:
+                return null;
+        }
+    }
+
+    private static int readWebpExifOrientation(Reader reader, long vp8xRemaining) throws IOException {
+        try {
+            // The EXIF chunk comes after the image data: skip the chunks until it is found
+            reader.skipFully(vp8xRemaining);
+            while (true) {
+                int chunkType = reader.readInt();
+                int chunkSize = reader.readIntLittleEndian();
+                if (chunkSize < 0) return ORIENTATION_UNDEFINED;
+                if (chunkType == 0x45584946 /* EXIF */) {
+                    reader.limit(chunkSize);
+                    // Some encoders keep the JPEG "Exif\0\0" prefix
+                    reader.mark();
+                    if (reader.readInt() != 0x45786966 || reader.readUnsignedShort() != 0) reader.reset();
+                    return readTiffOrientation(reader);
+                }
+                reader.skipFully(chunkSize + (chunkSize & 1));
+            }
+        } catch (EOFException e) {
+            // No EXIF chunk, or a truncated one: the dimensions are still valid
+            return ORIENTATION_UNDEFINED;
+        }
+    }
+
+
+    /*
+     * EXIF.
+     */
+
+    /**
+     * Reads the orientation tag in the first IFD of the TIFF structure at the current position of the given reader.
+     */
+    private static int readTiffOrientation(Reader reader) throws IOException {
+        int byteOrder = reader.readUnsignedShort();
+        boolean littleEndian;
+        if (byteOrder == 0x4949 /* II */) {
+            littleEndian = true;
+        } else if (byteOrder == 0x4D4D /* MM */) {
+            littleEndian = false;
+        } else {
+            return ORIENTATION_UNDEFINED;
+        }
+        reader.skipFully(2); // 42
+        long ifdOffset = readInt(reader, littleEndian) & 0xFFFFFFFFL;
+        // Offsets are relative to the TIFF header, 8 bytes of which have been read
+        if (ifdOffset < 8) return ORIENTATION_UNDEFINED;
+        reader.skipFully(ifdOffset - 8);
+        int entryCount = readUnsignedShort(reader, littleEndian);
+        for (int i = 0; i < entryCount; i++) {
+            int tag = readUnsignedShort(reader, littleEndian);
+            if (tag == TAG_ORIENTATION) {
+                reader.skipFully(6); // Type and count
+                return readUnsignedShort(reader, littleEndian);
+            }
+            reader.skipFully(10);
+        }
+        return ORIENTATION_UNDEFINED;
+    }
+
+    private static int readUnsignedShort(Reader reader, boolean littleEndian) throws IOException {
+        return littleEndian ? reader.readUnsignedShortLittleEndian() : reader.readUnsignedShort();
+    }
+
+    private static int readInt(Reader reader, boolean littleEndian) throws IOException {
+        return littleEndian ? reader.readIntLittleEndian() : reader.readInt();
+    }
+
+
+    /*
+     * Reading.
+     */
+
+    /**
+     * Reads big and little endian values from a small buffer, with an optional limit.
+     */
+    private static class Reader {
+        private final BufferedInputStream mIn;
+        private long mRemaining = Long.MAX_VALUE;
+        private long mMarkRemaining;
+
+        public Reader(InputStream in) {
+            mIn = new BufferedInputStream(in, BUFFER_SIZE);
+        }
+
+        /**
+         * Prevents reading more than the given number of bytes from the current position (a {@link LimitReachedException} is thrown instead).
+         */
+        public void limit(long byteCount) {
+            mRemaining = byteCount;
+        }
+
+        public void skipToLimit() throws IOException {
+            long remaining = mRemaining;
+            mRemaining = Long.MAX_VALUE;
+            skipFully(remaining);
+        }
+
+        public void mark() {
+            mIn.mark(BUFFER_SIZE);
+            mMarkRemaining = mRemaining;
+        }
+
+        public void reset() throws IOException {
+            mIn.reset();
+            mRemaining = mMarkRemaining;
+        }
+
+        public int readUnsignedByte() throws IOException {
+            if (mRemaining <= 0) throw new LimitReachedException();
+            int res = mIn.read();
+            if (res == -1) throw new EOFException();
+            mRemaining--;
+            return res;
+        }
+
+        public int readUnsignedShort() throws IOException {
+            return (readUnsignedByte() << 8) | readUnsignedByte();
+        }
+
+        public int readUnsignedShortLittleEndian() throws IOException {
+            return readUnsignedByte() | (readUnsignedByte() << 8);
+        }
+
+        public int readUnsignedInt24LittleEndian() throws IOException {
+            return readUnsignedByte() | (readUnsignedByte() << 8) | (readUnsignedByte() << 16);
+        }
+
+        public int readInt() throws IOException {
+            return (readUnsignedShort() << 16) | readUnsignedShort();
+        }
+
+        public int readIntLittleEndian() throws IOException {
+            return readUnsignedShortLittleEndian() | (readUnsignedShortLittleEndian() << 16);
+        }
+
+        public void skipFully(long byteCount) throws IOException {
+            if (byteCount < 0 || byteCount > mRemaining) throw new LimitReachedException();
+            long left = byteCount;
+            while (left > 0) {
+                long skipped = mIn.skip(left);
+                if (skipped <= 0) {
+                    // Some streams only skip what is buffered: read a byte to know if the end is reached
+                    if (mIn.read() == -1) throw new EOFException();
+                    skipped = 1;
+                }
+                left -= skipped;
+            }
+            mRemaining -= byteCount;
+        }
+    }
+
+    /**
+     * Thrown when trying to read past the limit set on a {@link Reader}.
+     */
+    private static class LimitReachedException extends EOFException {}
+}
@@ -0,0 +1,231 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.util.bitmap;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.graphics.Bitmap;
+import android.os.Process;
+import android.util.Log;
+
+import org.jraf.android.util.Constants;
+import org.jraf.android.util.handler.HandlerUtil;
+
+/**
+ * Creates the thumbnails of many files in the background, using {@link BitmapUtil#createThumbnail(File, int, int, BitmapPool)}.<br/>
+ * <br/>
+ * The thumbnails are created by a bounded number of threads: at most the number of cores, and fewer if decoding that many thumbnails at the same time
+ * would not fit in the budget of the {@link DecodePlanner#getDefault() default planner}. They are given to the {@link Listener}, in the main thread, in
+ * the order they are created.<br/>
+ * A batch can be cancelled (for instance when the screen showing the thumbnails goes away): the thumbnails which are not created yet are skipped, and
+ * the ones being created are not given to the listener.
+ */
+public class ThumbnailBatch {
+    private static final String TAG = Constants.TAG + ThumbnailBatch.class.getSimpleName();
+
+    private static final ThreadFactory THREAD_FACTORY = new ThreadFactory() {
+        private final AtomicInteger mThreadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    // Don't compete with the UI thread, for instance while the thumbnails are scrolled
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, TAG + " #" + mThreadCount.incrementAndGet());
+        }
+    };
+
+    /**
+     * A thumbnail to create.
+     */
+    public static class Request {
+        public final File file;
+        public final int maxWidth;
+        public final int maxHeight;
+
+        public Request(File file, int maxWidth, int maxHeight) {
+            this.file = file;
+            this.maxWidth = maxWidth;
+            this.maxHeight = maxHeight;
+        }
+
+        @Override
+        public String toString() {
+            return file + " " + maxWidth + "x" + maxHeight;
+        }
+    }
+
+    /**
+     * Listener notified of the thumbnails of a batch, in the main thread.
+     */
+    public interface Listener {
+        /**
+         * Called when a thumbnail has been created.
+         *
+         * @param request The request of the thumbnail.
+         * @param thumbnail The thumbnail, or {@code null} if the file could not be decoded (including when there was not enough memory). It belongs to the
+         *            listener.
+         */
+        void onThumbnail(Request request, Bitmap thumbnail);
+
+        /**
+         * Called after all the thumbnails of the batch have been given to {@link #onThumbnail(Request, Bitmap)}.<br/>
+         * Not called if the batch was cancelled.
+         */
+        void onFinished();
+    }
+
+    private final List<Request> mRequests;
+    private final BitmapPool mBitmapPool;
+    private final Listener mListener;
+    private final ThreadPoolExecutor mExecutor;
+    private volatile boolean mCancelled;
+    private int mDeliveredCount;
+
+    private ThumbnailBatch(List<Request> requests, BitmapPool bitmapPool, Listener listener) {
+        mRequests = new ArrayList<>(requests);
+        mBitmapPool = bitmapPool;
+        mListener = listener;
+        int threadCount = getThreadCount(mRequests);
+        Log.d(TAG, "requests=" + mRequests.size() + " threadCount=" + threadCount);
+        mExecutor = new ThreadPoolExecutor(threadCount, threadCount, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), THREAD_FACTORY);
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Starts creating the thumbnails of the given requests.<br/>
+     * This must be called from the main thread.
+     *
+     * @param requests The thumbnails to create.
+     * @param bitmapPool The pool passed to {@link BitmapUtil#createThumbnail(File, int, int, BitmapPool)}, which also receives the thumbnails created after
+     *            the batch has been cancelled (can be {@code null}).
+     * @param listener The listener to notify.
+     * @return The started batch.
+     */
+    public static ThumbnailBatch start(List<Request> requests, BitmapPool bitmapPool, Listener listener) {
+        ThumbnailBatch res = new ThumbnailBatch(requests, bitmapPool, listener);
+        res.start();
+        return res;
+    }
+
+    /**
+     * Returns the number of threads to use: one per core, but no more than what the memory budget allows for the biggest request.
+     */
+    private static int getThreadCount(List<Request> requests) {
+        long maxByteCount = 1;
+        for (Request request : requests) {
+            // A thumbnail is decoded at up to twice its dimensions, and then drawn into the thumbnail itself
+            long byteCount = DecodePlanner.getByteCount(request.maxWidth * 2, request.maxHeight * 2, 1, Bitmap.Config.ARGB_8888)
+                    + DecodePlanner.getByteCount(request.maxWidth, request.maxHeight, 1, Bitmap.Config.ARGB_8888);
+            if (byteCount > maxByteCount) maxByteCount = byteCount;
+        }
+        long memoryThreadCount = DecodePlanner.getDefault().getBudget() / maxByteCount;
+        int res = (int) Math.min(Runtime.getRuntime().availableProcessors(), memoryThreadCount);
+        res = Math.min(res, requests.size());
+        return Math.max(res, 1);
+    }
+
+    private void start() {
+        if (mRequests.isEmpty()) {
+            HandlerUtil.getMainHandler().post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mCancelled) mListener.onFinished();
+                }
+            });
+        }
+        for (final Request request : mRequests) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (mCancelled) return;
+                    Bitmap thumbnail = null;
+                    try {
+                        thumbnail = BitmapUtil.createThumbnail(request.file, request.maxWidth, request.maxHeight, mBitmapPool);
+                    } catch (RuntimeException | OutOfMemoryError e) {
+                        Log.w(TAG, "Could not create thumbnail for " + request, e);
+                    } finally {
+                        // Always deliver, even a null thumbnail, otherwise onFinished would never be called
+                        deliver(request, thumbnail);
+                    }
+                }
+            });
+        }
+        mExecutor.shutdown();
+    }
+
+    private void deliver(final Request request, final Bitmap thumbnail) {
+        HandlerUtil.getMainHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                if (mCancelled) {
+                    // Nobody wants it anymore
+                    if (thumbnail != null) release(thumbnail);
+                    return;
+                }
+                mListener.onThumbnail(request, thumbnail);
+                mDeliveredCount++;
+                if (mDeliveredCount == mRequests.size()) mListener.onFinished();
+            }
+        });
+    }
+
+    private void release(Bitmap bitmap) {
+        if (mBitmapPool != null) {
+            mBitmapPool.release(bitmap);
+        } else {
+            bitmap.recycle();
+        }
+    }
+
+    /**
+     * Cancels the batch: the listener won't be notified anymore.<br/>
+     * This must be called from the main thread.
+     */
+    public void cancel() {
+        if (mCancelled) return;
+        Log.d(TAG, "cancel delivered=" + mDeliveredCount + "/" + mRequests.size());
+        mCancelled = true;
+        // Drop the requests which are not started
+        mExecutor.getQueue().clear();
+    }
+
+    /**
+     * Returns whether {@link #cancel()} has been called.
+     */
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+}
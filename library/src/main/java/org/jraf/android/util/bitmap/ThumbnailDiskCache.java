@@ -0,0 +1,201 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.util.bitmap;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.util.Log;
+
+import org.jraf.android.util.Constants;
+import org.jraf.android.util.file.DiskLruCache;
+import org.jraf.android.util.io.IoUtil;
+import org.jraf.android.util.string.StringUtil;
+
+/**
+ * Disk cache of thumbnails, so they survive process restarts and are not decoded again from the (usually much bigger) original file.<br/>
+ * <br/>
+ * Thumbnails are identified by the path, size and last modification time of their file, and their max dimensions, so a modified file is decoded again.
+ * They are stored encoded (JPEG for opaque thumbnails, WebP for the others, or PNG below API level 18 which can't encode WebP with alpha) in a
+ * {@link DiskLruCache}, which is bounded by a number of bytes and evicts the least recently used thumbnails first.<br/>
+ * All the methods access the disk and should not be called from the UI thread.
+ */
+public class ThumbnailDiskCache implements Closeable {
+    private static final String TAG = Constants.TAG + ThumbnailDiskCache.class.getSimpleName();
+
+    private static final String DIRECTORY_NAME = "thumbnails";
+    private static final int QUALITY = 85;
+
+    private final DiskLruCache mDiskLruCache;
+
+    private ThumbnailDiskCache(DiskLruCache diskLruCache) {
+        mDiskLruCache = diskLruCache;
+    }
+
+    /**
+     * Opens the cache in the given directory, creating it if needed.
+     *
+     * @param directory A directory dedicated to this cache.
+     * @param maxSize The maximum number of bytes used by the encoded thumbnails.
+     * @return The opened cache.
+     * @throws IOException If the cache could not be opened.
+     */
+    public static ThumbnailDiskCache open(File directory, long maxSize) throws IOException {
+        return new ThumbnailDiskCache(DiskLruCache.open(directory, maxSize));
+    }
+
+    /**
+     * Opens the cache in a {@code thumbnails} directory inside the application's cache directory.
+     *
+     * @see #open(File, long)
+     */
+    public static ThumbnailDiskCache open(Context context, long maxSize) throws IOException {
+        return open(new File(context.getCacheDir(), DIRECTORY_NAME), maxSize);
+    }
+
+    private static String getKey(File bitmapFile, int maxWidth, int maxHeight) {
+        String id = bitmapFile.getAbsolutePath() + '|' + bitmapFile.length() + '|' + bitmapFile.lastModified() + '|' + maxWidth + 'x' + maxHeight;
+        try {
+            // Hash it to respect the format of the keys of DiskLruCache
+            return StringUtil.toHex(MessageDigest.getInstance("SHA-1").digest(id.getBytes("UTF-8")));
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            // Never happens: SHA-1 and UTF-8 are always available
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Returns the cached thumbnail of the given file, if any.
+     *
+     * @return A new bitmap containing the cached thumbnail, or {@code null}.
+     */
+    public Bitmap get(File bitmapFile, int maxWidth, int maxHeight) {
+        // A stream rather than the file, since the file can be deleted by an eviction before it is decoded
+        InputStream in = mDiskLruCache.getInputStream(getKey(bitmapFile, maxWidth, maxHeight));
+        if (in == null) return null;
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inMutable = true;
+        Bitmap res;
+        try {
+            res = BitmapFactory.decodeStream(in, null, options);
+        } finally {
+            IoUtil.closeSilently(in);
+        }
+        if (res == null) Log.w(TAG, "get Could not decode cached thumbnail of " + bitmapFile);
+        return res;
+    }
+
+    /**
+     * Caches the given thumbnail of the given file.
+     *
+     * @throws IOException If the thumbnail could not be written.
+     */
+    public void put(File bitmapFile, int maxWidth, int maxHeight, Bitmap thumbnail) throws IOException {
+        DiskLruCache.Editor editor = mDiskLruCache.edit(getKey(bitmapFile, maxWidth, maxHeight));
+        if (editor == null) {
+            // Already being written by another thread
+            return;
+        }
+        try {
+            OutputStream out = editor.newOutputStream();
+            try {
+                if (!thumbnail.compress(getCompressFormat(thumbnail), QUALITY, out)) throw new IOException("Could not encode thumbnail of " + bitmapFile);
+            } finally {
+                IoUtil.closeSilently(out);
+            }
+            editor.commit();
+        } finally {
+            editor.abortUnlessCommitted();
+        }
+    }
+
+    private static Bitmap.CompressFormat getCompressFormat(Bitmap thumbnail) {
+        if (!thumbnail.hasAlpha()) return Bitmap.CompressFormat.JPEG;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) return getLossyWebpFormatR();
+        // Lossy WebP with alpha is only supported on API level 18+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) return getLossyWebpFormatJellyBeanMr2();
+        return Bitmap.CompressFormat.PNG;
+    }
+
+    @TargetApi(Build.VERSION_CODES.R)
+    private static Bitmap.CompressFormat getLossyWebpFormatR() {
+        return Bitmap.CompressFormat.WEBP_LOSSY;
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    @SuppressWarnings("deprecation")
+    private static Bitmap.CompressFormat getLossyWebpFormatJellyBeanMr2() {
+        // Deprecated in API level 30, where it is replaced by WEBP_LOSSY, but lossy until then
+        return Bitmap.CompressFormat.WEBP;
+    }
+
+    /**
+     * Returns the cached thumbnail of the given file, or creates it with {@link BitmapUtil#createThumbnail(File, int, int, BitmapPool)} and caches it.
+     *
+     * @param bitmapPool The pool passed to {@link BitmapUtil#createThumbnail(File, int, int, BitmapPool)} (can be {@code null}).
+     * @return The thumbnail, or {@code null} if the file could not be decoded.
+     */
+    public Bitmap getThumbnail(File bitmapFile, int maxWidth, int maxHeight, BitmapPool bitmapPool) {
+        Bitmap res = get(bitmapFile, maxWidth, maxHeight);
+        if (res != null) return res;
+        res = BitmapUtil.createThumbnail(bitmapFile, maxWidth, maxHeight, bitmapPool);
+        if (res == null) return null;
+        try {
+            put(bitmapFile, maxWidth, maxHeight, res);
+        } catch (IOException e) {
+            Log.w(TAG, "getThumbnail Could not cache thumbnail of " + bitmapFile, e);
+        }
+        return res;
+    }
+
+    /**
+     * Returns the number of bytes currently used by the cached thumbnails.
+     */
+    public long size() {
+        return mDiskLruCache.size();
+    }
+
+    /**
+     * Closes the cache and deletes its directory, including all the cached thumbnails.
+     */
+    public void delete() throws IOException {
+        mDiskLruCache.delete();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mDiskLruCache.close();
+    }
+}
@@ -0,0 +1,374 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.util.bitmap;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.util.Log;
+import android.util.LruCache;
+
+import org.jraf.android.util.Constants;
+import org.jraf.android.util.handler.HandlerUtil;
+import org.jraf.android.util.pool.MemoryPressureRegistry;
+import org.jraf.android.util.pool.Trimmable;
+
+/**
+ * Loads the visible parts of a very large image, as square tiles decoded with {@link BitmapRegionDecoder}, so that it can be zoomed into without decoding
+ * the whole image at full resolution.<br/>
+ * <br/>
+ * The image is divided in tiles of {@code tileSize} pixels <em>once decoded</em>: with a sample size of 4, a tile covers a region of 4 x {@code tileSize}
+ * pixels of the image. {@link #getTiles(Rect, int)} returns the tiles of the visible region which are already loaded, and loads the others in the
+ * background, on a small pool of threads (each one with its own decoder, since a decoder only decodes one region at a time). The {@link Listener} is
+ * notified in the main thread when a tile is loaded, so that the view can be redrawn. Tiles which are not visible anymore when their turn comes are
+ * skipped.<br/>
+ * Loaded tiles are kept in a memory cache bounded by a number of bytes, evicting the least recently used first. The loader adds itself to the
+ * {@link MemoryPressureRegistry}, so that this cache is trimmed under memory pressure.
+ */
+public class TiledImageLoader implements Closeable, Trimmable {
+    private static final String TAG = Constants.TAG + TiledImageLoader.class.getSimpleName();
+
+    public static final int DEFAULT_TILE_SIZE = 512;
+    private static final int MAX_THREAD_COUNT = 3;
+
+    /**
+     * Listener notified in the main thread when tiles are loaded.
+     */
+    public interface Listener {
+        void onTileLoaded(Tile tile);
+    }
+
+    /**
+     * A loaded part of the image.
+     */
+    public static class Tile {
+        /**
+         * The region of the image covered by this tile, in image coordinates.
+         */
+        public final Rect region;
+
+        /**
+         * The sample size the tile was decoded with.
+         */
+        public final int sampleSize;
+
+        /**
+         * The decoded tile, whose dimensions are those of {@link #region} divided by {@link #sampleSize}. It must not be recycled or modified.
+         */
+        public final Bitmap bitmap;
+
+        private Tile(Rect region, int sampleSize, Bitmap bitmap) {
+            this.region = region;
+            this.sampleSize = sampleSize;
+            this.bitmap = bitmap;
+        }
+    }
+
+    private static class TileKey {
+        private final int mSampleSize;
+        private final int mColumn;
+        private final int mRow;
+
+        private TileKey(int sampleSize, int column, int row) {
+            mSampleSize = sampleSize;
+            mColumn = column;
+            mRow = row;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof TileKey)) return false;
+            TileKey key = (TileKey) o;
+            return mSampleSize == key.mSampleSize && mColumn == key.mColumn && mRow == key.mRow;
+        }
+
+        @Override
+        public int hashCode() {
+            int res = mSampleSize;
+            res = 31 * res + mColumn;
+            res = 31 * res + mRow;
+            return res;
+        }
+    }
+
+    private final File mImageFile;
+    private final int mTileSize;
+    private final Listener mListener;
+    private final int mWidth;
+    private final int mHeight;
+    private final LruCache<TileKey, Tile> mTiles;
+    private final ThreadPoolExecutor mExecutor;
+    private final ArrayList<BitmapRegionDecoder> mFreeDecoders = new ArrayList<>();
+    private final Set<TileKey> mLoadingTiles = Collections.synchronizedSet(new HashSet<TileKey>());
+    private volatile Set<TileKey> mVisibleTiles = Collections.emptySet();
+    private volatile boolean mClosed;
+
+    private TiledImageLoader(File imageFile, int tileSize, int maxCacheSize, Listener listener, BitmapRegionDecoder decoder) {
+        mImageFile = imageFile;
+        mTileSize = tileSize;
+        mListener = listener;
+        mWidth = decoder.getWidth();
+        mHeight = decoder.getHeight();
+        mFreeDecoders.add(decoder);
+        mTiles = new LruCache<TileKey, Tile>(maxCacheSize) {
+            @Override
+            protected int sizeOf(TileKey key, Tile value) {
+                return BitmapUtil.getAllocationByteCount(value.bitmap);
+            }
+        };
+        int threadCount = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), MAX_THREAD_COUNT));
+        mExecutor = new ThreadPoolExecutor(threadCount, threadCount, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        mExecutor.allowCoreThreadTimeOut(true);
+        MemoryPressureRegistry.getInstance().add(this);
+    }
+
+    /**
+     * Opens the given image.<br/>
+     * This accesses the disk and should not be called from the UI thread.
+     *
+     * @param imageFile A JPEG, PNG or WebP file.
+     * @param tileSize The width and height of the decoded tiles, in pixels.
+     * @param maxCacheSize The maximum number of bytes used by the pixels of the loaded tiles.
+     * @param listener The listener to notify when tiles are loaded.
+     * @return The opened loader, which must be closed when not used anymore.
+     * @throws IOException If the image could not be read, or its format is not supported.
+     */
+    public static TiledImageLoader open(File imageFile, int tileSize, int maxCacheSize, Listener listener) throws IOException {
+        BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(imageFile.getPath(), false);
+        return new TiledImageLoader(imageFile, tileSize, maxCacheSize, listener, decoder);
+    }
+
+    /**
+     * Returns the width of the image.
+     */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    /**
+     * Returns the height of the image.
+     */
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Returns the sample size to use to display the image at the given scale: the biggest power of 2 which doesn't make the image blurry.
+     *
+     * @param scale The ratio between the displayed size and the size of the image (e.g. {@code 0.25} when the image is displayed 4 times smaller).
+     * @throws IllegalArgumentException If {@code scale} is not a positive number.
+     */
+    public static int getSampleSize(float scale) {
+        // Also rejects NaN
+        if (!(scale > 0)) throw new IllegalArgumentException("scale must be > 0");
+        int res = 1;
+        // Stop before overflowing for tiny scales
+        while (res < 1 << 30 && res * 2 * scale <= 1) {
+            res *= 2;
+        }
+        return res;
+    }
+
+    /**
+     * Returns the loaded tiles covering the given region, and starts loading the missing ones.<br/>
+     * The tiles of the previous calls which are not covering this region and are not loaded yet are not loaded anymore.<br/>
+     * This must be called from the main thread.
+     *
+     * @param visibleRegion The visible region of the image, in image coordinates.
+     * @param sampleSize The sample size to use, a power of 2 (see {@link #getSampleSize(float)}).
+     * @return The tiles already loaded.
+     * @throws IllegalArgumentException If {@code sampleSize} is not a positive power of 2.
+     */
+    public List<Tile> getTiles(Rect visibleRegion, int sampleSize) {
+        if (sampleSize <= 0) throw new IllegalArgumentException("sampleSize must be > 0");
+        // BitmapRegionDecoder rounds it down to a power of 2, which would not match the size of the tiles
+        if ((sampleSize & (sampleSize - 1)) != 0) throw new IllegalArgumentException("sampleSize must be a power of 2");
+        if (mClosed) throw new IllegalStateException("The loader is closed");
+        List<Tile> res = new ArrayList<>();
+        if (visibleRegion.right <= 0 || visibleRegion.bottom <= 0 || visibleRegion.left >= mWidth || visibleRegion.top >= mHeight) {
+            mVisibleTiles = Collections.emptySet();
+            return res;
+        }
+        int tileImageSize = mTileSize * sampleSize;
+        int firstColumn = Math.max(0, visibleRegion.left / tileImageSize);
+        int lastColumn = Math.min((mWidth - 1) / tileImageSize, (visibleRegion.right - 1) / tileImageSize);
+        int firstRow = Math.max(0, visibleRegion.top / tileImageSize);
+        int lastRow = Math.min((mHeight - 1) / tileImageSize, (visibleRegion.bottom - 1) / tileImageSize);
+
+        Set<TileKey> visibleTiles = new HashSet<>();
+        List<TileKey> missingTiles = new ArrayList<>();
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                TileKey key = new TileKey(sampleSize, column, row);
+                visibleTiles.add(key);
+                Tile tile = mTiles.get(key);
+                if (tile != null) {
+                    res.add(tile);
+                } else {
+                    missingTiles.add(key);
+                }
+            }
+        }
+        mVisibleTiles = visibleTiles;
+        for (TileKey key : missingTiles) {
+            if (mLoadingTiles.add(key)) load(key);
+        }
+        return res;
+    }
+
+    private void load(final TileKey key) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    // Skip the tiles which have been scrolled away in the meantime
+                    if (mClosed || !mVisibleTiles.contains(key)) return;
+                    final Tile tile = decodeTile(key);
+                    if (tile == null) return;
+                    // Checked under the lock of close(), so that the tile cannot be put after the cache has been cleared
+                    boolean closed;
+                    synchronized (mFreeDecoders) {
+                        closed = mClosed;
+                        if (!closed) mTiles.put(key, tile);
+                    }
+                    if (closed) {
+                        // Never returned, so nobody else uses it
+                        tile.bitmap.recycle();
+                        return;
+                    }
+                    MemoryPressureRegistry.getInstance().checkRetainedBytes();
+                    HandlerUtil.getMainHandler().post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (!mClosed) mListener.onTileLoaded(tile);
+                        }
+                    });
+                } finally {
+                    mLoadingTiles.remove(key);
+                }
+            }
+        });
+    }
+
+    private Tile decodeTile(TileKey key) {
+        int tileImageSize = mTileSize * key.mSampleSize;
+        int left = key.mColumn * tileImageSize;
+        int top = key.mRow * tileImageSize;
+        Rect region = new Rect(left, top, Math.min(left + tileImageSize, mWidth), Math.min(top + tileImageSize, mHeight));
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = key.mSampleSize;
+        BitmapRegionDecoder decoder = acquireDecoder();
+        if (decoder == null) return null;
+        Bitmap bitmap;
+        try {
+            bitmap = decoder.decodeRegion(region, options);
+        } finally {
+            releaseDecoder(decoder);
+        }
+        if (bitmap == null) {
+            Log.w(TAG, "decodeTile Could not decode region " + region + " of " + mImageFile);
+            return null;
+        }
+        return new Tile(region, key.mSampleSize, bitmap);
+    }
+
+    private BitmapRegionDecoder acquireDecoder() {
+        synchronized (mFreeDecoders) {
+            if (mClosed) return null;
+            if (!mFreeDecoders.isEmpty()) return mFreeDecoders.remove(mFreeDecoders.size() - 1);
+        }
+        // One decoder per thread, created when needed
+        try {
+            return BitmapRegionDecoder.newInstance(mImageFile.getPath(), false);
+        } catch (IOException e) {
+            Log.w(TAG, "acquireDecoder Could not open " + mImageFile, e);
+            return null;
+        }
+    }
+
+    private void releaseDecoder(BitmapRegionDecoder decoder) {
+        synchronized (mFreeDecoders) {
+            if (mClosed) {
+                decoder.recycle();
+            } else {
+                mFreeDecoders.add(decoder);
+            }
+        }
+    }
+
+    /**
+     * Evicts all the loaded tiles from the memory cache.
+     */
+    public void evictAll() {
+        mTiles.evictAll();
+    }
+
+    @Override
+    public long getRetainedBytes() {
+        return mTiles.size();
+    }
+
+    /**
+     * Evicts the given fraction of the loaded tiles (in bytes), the least recently used first. Evicted tiles which are still visible are loaded again by the
+     * next call to {@link #getTiles(Rect, int)}.
+     */
+    @Override
+    public void trim(float fraction) {
+        mTiles.trimToSize((int) (mTiles.size() * (1f - fraction)));
+    }
+
+    /**
+     * Stops loading tiles and frees the decoders.<br/>
+     * The tiles already returned can still be used.
+     */
+    @Override
+    public void close() {
+        synchronized (mFreeDecoders) {
+            if (mClosed) return;
+            mClosed = true;
+            // The decoders currently in use are recycled when they are released
+            for (BitmapRegionDecoder decoder : mFreeDecoders) {
+                decoder.recycle();
+            }
+            mFreeDecoders.clear();
+        }
+        mExecutor.shutdownNow();
+        mTiles.evictAll();
+        MemoryPressureRegistry.getInstance().remove(this);
+    }
+}
@@ -38,6 +38,7 @@ public class CollectionUtil {
      *
      * @param intArray The array to convert.
      * @return The newly created {@link List}.
+     * @see IntArrayList
      */
     public static List<Integer> asList(int[] intArray) {
         List<Integer> res = new ArrayList<Integer>(intArray.length);
@@ -52,6 +53,7 @@ public class CollectionUtil {
      *
      * @param longArray The array to convert.
      * @return The newly created {@link List}.
+     * @see LongArrayList
      */
     public static List<Long> asList(long[] longArray) {
         List<Long> res = new ArrayList<Long>(longArray.length);
@@ -96,6 +98,7 @@ public class CollectionUtil {
      *
      * @param value The collection to convert.
      * @return The newly created array.
+     * @see IntArrayList#toArray()
      */
     public static int[] unwrapInt(Collection<Integer> value) {
         if (value == null) return null;
@@ -137,6 +140,7 @@ public class CollectionUtil {
      *
      * @param value The collection to convert.
      * @return The newly created array.
+     * @see LongArrayList#toArray()
      */
     public static long[] unwrapLong(Collection<Long> value) {
         if (value == null) return null;
@@ -178,6 +182,7 @@ public class CollectionUtil {
      *
      * @param value The collection to convert.
      * @return The newly created array.
+     * @see DoubleArrayList#toArray()
      */
     public static double[] unwrapDouble(Collection<Double> value) {
         if (value == null) return null;
@@ -219,6 +224,7 @@ public class CollectionUtil {
      *
      * @param value The collection to convert.
      * @return The newly created array.
+     * @see FloatArrayList#toArray()
      */
     public static float[] unwrapFloat(Collection<Float> value) {
         if (value == null) return null;
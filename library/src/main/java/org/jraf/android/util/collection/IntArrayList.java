@@ -0,0 +1,327 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.util.collection;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of {@code int} values, backed by an array, which avoids boxing each value into an {@link Integer} like an {@code ArrayList<Integer>}
+ * would.<br/>
+ * Adding at the end is amortized constant time: the capacity grows by half when the array is full.<br/>
+ * This class is not thread safe.
+ */
+public class IntArrayList {
+    private static final int DEFAULT_CAPACITY = 10;
+    private static final int[] EMPTY = new int[0];
+
+    private int[] mValues;
+    private int mSize;
+
+    /**
+     * Creates an empty list.
+     */
+    public IntArrayList() {
+        mValues = EMPTY;
+    }
+
+    /**
+     * Creates an empty list able to contain the given number of values without growing.
+     */
+    public IntArrayList(int initialCapacity) {
+        if (initialCapacity < 0) throw new IllegalArgumentException("initialCapacity must be >= 0");
+        mValues = initialCapacity == 0 ? EMPTY : new int[initialCapacity];
+    }
+
+    /**
+     * Creates a list containing a copy of the given values.
+     */
+    public IntArrayList(int[] values) {
+        mValues = values.length == 0 ? EMPTY : values.clone();
+        mSize = values.length;
+    }
+
+    /**
+     * Returns the number of values in this list.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    /**
+     * Returns the value at the given index.
+     *
+     * @throws IndexOutOfBoundsException If the index is not in {@code [0, size()[}.
+     */
+    public int get(int index) {
+        checkIndex(index);
+        return mValues[index];
+    }
+
+    /**
+     * Replaces the value at the given index.
+     *
+     * @return The previous value.
+     * @throws IndexOutOfBoundsException If the index is not in {@code [0, size()[}.
+     */
+    public int set(int index, int value) {
+        checkIndex(index);
+        int res = mValues[index];
+        mValues[index] = value;
+        return res;
+    }
+
+    /**
+     * Adds the given value at the end of this list.
+     */
+    public void add(int value) {
+        if (mSize == mValues.length) grow(mSize + 1);
+        mValues[mSize++] = value;
+    }
+
+    /**
+     * Inserts the given value at the given index, shifting the following values.
+     *
+     * @throws IndexOutOfBoundsException If the index is not in {@code [0, size()]}.
+     */
+    public void add(int index, int value) {
+        if (index < 0 || index > mSize) throw new IndexOutOfBoundsException("index=" + index + " size=" + mSize);
+        if (mSize == mValues.length) grow(mSize + 1);
+        System.arraycopy(mValues, index, mValues, index + 1, mSize - index);
+        mValues[index] = value;
+        mSize++;
+    }
+
+    /**
+     * Adds all the given values at the end of this list.
+     */
+    public void addAll(int[] values) {
+        addAll(values, 0, values.length);
+    }
+
+    /**
+     * Adds {@code count} values of the given array, starting at {@code offset}, at the end of this list.
+     */
+    public void addAll(int[] values, int offset, int count) {
+        if (offset < 0 || count < 0 || count > values.length - offset) {
+            throw new IndexOutOfBoundsException("offset=" + offset + " count=" + count + " length=" + values.length);
+        }
+        ensureCapacity(mSize + count);
+        System.arraycopy(values, offset, mValues, mSize, count);
+        mSize += count;
+    }
+
+    /**
+     * Adds all the values of the given list at the end of this list.
+     */
+    public void addAll(IntArrayList list) {
+        addAll(list.mValues, 0, list.mSize);
+    }
+
+    /**
+     * Removes the value at the given index, shifting the following values.
+     *
+     * @return The removed value.
+     * @throws IndexOutOfBoundsException If the index is not in {@code [0, size()[}.
+     */
+    public int removeAt(int index) {
+        checkIndex(index);
+        int res = mValues[index];
+        System.arraycopy(mValues, index + 1, mValues, index, mSize - index - 1);
+        mSize--;
+        return res;
+    }
+
+    /**
+     * Removes the values from index {@code fromIndex} (inclusive) to {@code toIndex} (exclusive), shifting the following values.
+     *
+     * @throws IndexOutOfBoundsException If the range is not in {@code [0, size()]}.
+     */
+    public void removeRange(int fromIndex, int toIndex) {
+        if (fromIndex < 0 || toIndex > mSize || fromIndex > toIndex) {
+            throw new IndexOutOfBoundsException("fromIndex=" + fromIndex + " toIndex=" + toIndex + " size=" + mSize);
+        }
+        System.arraycopy(mValues, toIndex, mValues, fromIndex, mSize - toIndex);
+        mSize -= toIndex - fromIndex;
+    }
+
+    /**
+     * Removes the first occurrence of the given value.
+     *
+     * @return {@code true} if the value was found.
+     */
+    public boolean removeValue(int value) {
+        int index = indexOf(value);
+        if (index == -1) return false;
+        removeAt(index);
+        return true;
+    }
+
+    /**
+     * Removes all the occurrences of all the given values, in a single pass over this list.
+     *
+     * @return The number of removed values.
+     */
+    public int removeAll(int[] values) {
+        if (values.length == 0 || mSize == 0) return 0;
+        // Sort a copy to look the values up in log time
+        int[] sortedValues = values.clone();
+        Arrays.sort(sortedValues);
+        int newSize = 0;
+        for (int i = 0; i < mSize; i++) {
+            int value = mValues[i];
+            if (Arrays.binarySearch(sortedValues, value) < 0) mValues[newSize++] = value;
+        }
+        int res = mSize - newSize;
+        mSize = newSize;
+        return res;
+    }
+
+    /**
+     * Removes all the occurrences of all the values of the given list, in a single pass over this list.
+     *
+     * @return The number of removed values.
+     */
+    public int removeAll(IntArrayList list) {
+        return removeAll(list.toArray());
+    }
+
+    /**
+     * Removes all the values. The capacity is kept.
+     */
+    public void clear() {
+        mSize = 0;
+    }
+
+    /**
+     * Returns the index of the first occurrence of the given value, or {@code -1} if it is not in this list.
+     */
+    public int indexOf(int value) {
+        for (int i = 0; i < mSize; i++) {
+            if (equal(mValues[i], value)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index of the last occurrence of the given value, or {@code -1} if it is not in this list.
+     */
+    public int lastIndexOf(int value) {
+        for (int i = mSize - 1; i >= 0; i--) {
+            if (equal(mValues[i], value)) return i;
+        }
+        return -1;
+    }
+
+    public boolean contains(int value) {
+        return indexOf(value) != -1;
+    }
+
+    /**
+     * Sorts the values in ascending order.
+     */
+    public void sort() {
+        Arrays.sort(mValues, 0, mSize);
+    }
+
+    /**
+     * Searches the given value in this list, which must be sorted (see {@link #sort()}).
+     *
+     * @return The index of the value, or {@code (-(insertion point) - 1)} if it is not in this list, like {@link Arrays#binarySearch(int[], int)}.
+     */
+    public int binarySearch(int value) {
+        return Arrays.binarySearch(mValues, 0, mSize, value);
+    }
+
+    /**
+     * Returns a new array containing the values of this list.
+     */
+    public int[] toArray() {
+        return Arrays.copyOf(mValues, mSize);
+    }
+
+    /**
+     * Makes sure this list can contain the given number of values without growing.
+     */
+    public void ensureCapacity(int minCapacity) {
+        if (minCapacity > mValues.length) grow(minCapacity);
+    }
+
+    /**
+     * Reduces the capacity to the number of values.
+     */
+    public void trimToSize() {
+        if (mSize < mValues.length) mValues = mSize == 0 ? EMPTY : Arrays.copyOf(mValues, mSize);
+    }
+
+    private void grow(int minCapacity) {
+        int newCapacity = mValues.length + (mValues.length >> 1);
+        if (newCapacity < DEFAULT_CAPACITY) newCapacity = DEFAULT_CAPACITY;
+        if (newCapacity < minCapacity) newCapacity = minCapacity;
+        mValues = Arrays.copyOf(mValues, newCapacity);
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= mSize) throw new IndexOutOfBoundsException("index=" + index + " size=" + mSize);
+    }
+
+    private static boolean equal(int a, int b) {
+        return a == b;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof IntArrayList)) return false;
+        IntArrayList list = (IntArrayList) o;
+        if (mSize != list.mSize) return false;
+        for (int i = 0; i < mSize; i++) {
+            if (!equal(mValues[i], list.mValues[i])) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int res = 1;
+        for (int i = 0; i < mSize; i++) {
+            res = 31 * res + mValues[i];
+        }
+        return res;
+    }
+
+    @Override
+    public String toString() {
+        if (mSize == 0) return "[]";
+        StringBuilder res = new StringBuilder(mSize * 4);
+        res.append('[').append(mValues[0]);
+        for (int i = 1; i < mSize; i++) {
+            res.append(", ").append(mValues[i]);
+        }
+        return res.append(']').toString();
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.util.file;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.util.Log;
+
+import org.jraf.android.util.Constants;
+import org.jraf.android.util.io.IoUtil;
+
+/**
+ * Writes files atomically: the contents are written to a sibling temporary file, flushed to the storage device, then renamed over the destination file.
+ * If the process or the device crashes, the destination file contains either its previous contents or its new contents, never a mix of both.<br/>
+ * <br/>
+ * {@link #write(File, byte[])} does this for a single file, synchronously. An instance of this class can also be used to batch writes: the writes enqueued
+ * with {@link #enqueue(File, byte[])} within a time window are done together in a background thread, sharing the synchronization of their directory. Only
+ * the last contents enqueued for a given file in a window are written. A deletion can be enqueued too, with {@link #enqueueDelete(File)}, so that it is
+ * ordered with the writes of the same file.
+ */
+public class AtomicFileWriter implements Closeable {
+    private static final String TAG = Constants.TAG + AtomicFileWriter.class.getSimpleName();
+
+    private static final String TMP_PREFIX = ".afw-";
+    private static final String TMP_SUFFIX = ".tmp";
+    // The names given by File.createTempFile: TMP_PREFIX + name + "-" + random number + TMP_SUFFIX
+    private static final Pattern TMP_FILE_PATTERN = Pattern.compile("\\.afw-.+--?[0-9]+\\.tmp");
+    private static final long STALE_TMP_FILE_AGE_MS = TimeUnit.MINUTES.toMillis(10);
+    private static final int MAX_SWEPT_DIRECTORY_COUNT = 32;
+
+    // When the recently written directories were last cleaned of stale temporary files
+    private static final LinkedHashMap<File, Long> sSweepTimes = new LinkedHashMap<File, Long>(0, .75F, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<File, Long> eldest) {
+            return size() > MAX_SWEPT_DIRECTORY_COUNT;
+        }
+    };
+
+    private final long mWindowMs;
+    private final ScheduledThreadPoolExecutor mExecutor = new ScheduledThreadPoolExecutor(1);
+    private final Object mLock = new Object();
+    // A null value means the file must be deleted
+    private LinkedHashMap<File, byte[]> mPendingWrites = new LinkedHashMap<>();
+    private boolean mScheduled;
+    private long mEnqueuedCount;
+    private long mWrittenCount;
+    private IOException mError;
+    private boolean mClosed;
+
+    private final Runnable mBatchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Map<File, byte[]> batch;
+            long enqueuedCount;
+            synchronized (mLock) {
+                batch = mPendingWrites;
+                mPendingWrites = new LinkedHashMap<>();
+                mScheduled = false;
+                enqueuedCount = mEnqueuedCount;
+            }
+            IOException error = batch.isEmpty() ? null : writeBatch(batch);
+            synchronized (mLock) {
+                mWrittenCount = enqueuedCount;
+                if (error != null && mError == null) mError = error;
+                mLock.notifyAll();
+            }
+        }
+    };
+
+    /**
+     * Creates a writer batching the writes enqueued within the given time window.
+     *
+     * @param windowMs The maximum time a write is delayed, waiting for other writes to share the synchronization with (must be >= 0).
+     * @throws IllegalArgumentException If {@code windowMs} is negative.
+     */
+    public AtomicFileWriter(long windowMs) {
+        if (windowMs < 0) throw new IllegalArgumentException("windowMs must be >= 0");
+        mWindowMs = windowMs;
+        // Don't keep the thread alive between bursts
+        mExecutor.setKeepAliveTime(10, TimeUnit.SECONDS);
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Atomically replaces the contents of the given file, in the calling thread.<br/>
+     * The file and its directory are flushed to the storage device before returning.
+     *
+     * @param file The file to write.
+     * @param data The new contents of the file.
+     * @throws IOException If the file could not be written (in that case its previous contents are kept).
+     */
+    public static void write(File file, byte[] data) throws IOException {
+        writeAndRename(file, data);
+        syncDirectory(file.getAbsoluteFile().getParentFile());
+    }
+
+    private static void writeAndRename(File file, byte[] data) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        deleteStaleTmpFiles(directory);
+        // A unique name, so that concurrent writes of the same file (possibly from other processes) don't share their temporary file
+        File tmpFile = File.createTempFile(TMP_PREFIX + file.getName() + "-", TMP_SUFFIX, directory);
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tmpFile);
+            out.write(data);
+            out.flush();
+            out.getFD().sync();
+            out.close();
+            out = null;
+            if (!tmpFile.renameTo(file)) throw new IOException("Could not rename " + tmpFile + " to " + file);
+        } catch (IOException e) {
+            IoUtil.closeSilently(out);
+            tmpFile.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * Deletes the temporary files left in the given directory by a process that died while writing.<br/>
+     * Only the files named by this class are looked at. Recent ones are kept: they may belong to a write in progress, in another thread or process. The
+     * directory is listed at most once per {@link #STALE_TMP_FILE_AGE_MS}, since the temporary files of this process are always deleted on failure.
+     */
+    private static void deleteStaleTmpFiles(File directory) {
+        long now = System.currentTimeMillis();
+        synchronized (sSweepTimes) {
+            Long sweepTime = sSweepTimes.get(directory);
+            if (sweepTime != null && now - sweepTime < STALE_TMP_FILE_AGE_MS) return;
+            sSweepTimes.put(directory, now);
+        }
+        File[] tmpFiles = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return TMP_FILE_PATTERN.matcher(file.getName()).matches();
+            }
+        });
+        if (tmpFiles == null) return;
+        long staleTime = now - STALE_TMP_FILE_AGE_MS;
+        for (File tmpFile : tmpFiles) {
+            if (tmpFile.lastModified() < staleTime && tmpFile.delete()) Log.d(TAG, "deleteStaleTmpFiles Deleted " + tmpFile);
+        }
+    }
+
+    /**
+     * Flushes the entries of the given directory (in particular the result of a rename) to the storage device.<br/>
+     * This is only possible on API level 21+. On previous levels, the rename itself is still atomic, but may not be durable yet when this returns.
+     */
+    private static void syncDirectory(File directory) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            syncDirectoryLollipop(directory);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static void syncDirectoryLollipop(File directory) {
+        try {
+            FileDescriptor fd = Os.open(directory.getPath(), OsConstants.O_RDONLY, 0);
+            try {
+                Os.fsync(fd);
+            } finally {
+                Os.close(fd);
+            }
+        } catch (ErrnoException e) {
+            Log.w(TAG, "syncDirectory Could not sync " + directory, e);
+        }
+    }
+
+    private static IOException writeBatch(Map<File, byte[]> batch) {
+        IOException res = null;
+        Set<File> directories = new LinkedHashSet<>();
+        for (Map.Entry<File, byte[]> write : batch.entrySet()) {
+            File file = write.getKey();
+            byte[] data = write.getValue();
+            if (data == null) {
+                if (file.delete()) directories.add(file.getParentFile());
+                continue;
+            }
+            try {
+                writeAndRename(file, data);
+                directories.add(file.getParentFile());
+            } catch (IOException e) {
+                Log.w(TAG, "writeBatch Could not write " + file, e);
+                if (res == null) res = e;
+            }
+        }
+        for (File directory : directories) {
+            syncDirectory(directory);
+        }
+        Log.d(TAG, "writeBatch files=" + batch.size() + " directories=" + directories.size());
+        return res;
+    }
+
+    /**
+     * Enqueues an atomic write of the given file, which will be done in a background thread within the time window of this writer.<br/>
+     * The given array must not be modified after this call. If the same file is enqueued again before it is written, only the last contents are written.
+     *
+     * @param file The file to write.
+     * @param data The new contents of the file.
+     * @throws IllegalArgumentException If {@code data} is {@code null}.
+     * @throws IllegalStateException If this writer is closed.
+     */
+    public void enqueue(File file, byte[] data) {
+        if (data == null) throw new IllegalArgumentException("data must not be null");
+        enqueueInternal(file, data);
+    }
+
+    /**
+     * Enqueues the deletion of the given file, which will be done in a background thread within the time window of this writer.<br/>
+     * It replaces any write of the same file enqueued before it and not done yet.
+     *
+     * @param file The file to delete.
+     * @throws IllegalStateException If this writer is closed.
+     */
+    public void enqueueDelete(File file) {
+        enqueueInternal(file, null);
+    }
+
+    private void enqueueInternal(File file, byte[] data) {
+        synchronized (mLock) {
+            if (mClosed) throw new IllegalStateException("The writer is closed");
+            mPendingWrites.put(file.getAbsoluteFile(), data);
+            mEnqueuedCount++;
+            if (!mScheduled) {
+                mScheduled = true;
+                mExecutor.schedule(mBatchRunnable, mWindowMs, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Writes the pending writes now, and waits until they are done.
+     *
+     * @throws IOException If any write since the last call to this method failed (the first error is thrown).
+     */
+    public void flush() throws IOException {
+        synchronized (mLock) {
+            long target = mEnqueuedCount;
+            if (mWrittenCount < target) mExecutor.execute(mBatchRunnable);
+            while (mWrittenCount < target) {
+                try {
+                    mLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the writes to be done");
+                }
+            }
+            IOException error = mError;
+            mError = null;
+            if (error != null) throw error;
+        }
+    }
+
+    /**
+     * Writes the pending writes and stops the background thread.<br/>
+     * No writes can be enqueued after this has been called.
+     *
+     * @throws IOException If any write since the last call to {@link #flush()} failed.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (mLock) {
+            if (mClosed) return;
+            mClosed = true;
+        }
+        try {
+            flush();
+        } finally {
+            mExecutor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.util.file;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.util.Log;
+
+import org.jraf.android.util.Constants;
+import org.jraf.android.util.io.IoUtil;
+import org.jraf.android.util.string.StringUtil;
+
+/**
+ * A store of files identified by their contents, so that identical contents are stored only once.<br/>
+ * <br/>
+ * Contents are added with {@link #put(InputStream)} or {@link #put(File)}: they are copied into the store while their SHA-256 hash is computed, and the hash
+ * (as a lowercase hex string) is returned. If the same contents were already in the store, the copy is discarded and the reference count of the existing
+ * contents is incremented. {@link #release(String)} decrements it, and the contents and their reference count are deleted when it reaches zero.<br/>
+ * <br/>
+ * {@link #link(String, File)} makes the contents available at another path, using a hard link when possible so that no data is copied.<br/>
+ * <br/>
+ * Reference counts are persisted next to the contents, using a batched {@link AtomicFileWriter}: {@link #close()} (or {@link #flush()}) must be called to
+ * guarantee they are written. If they are not (for instance if the process dies), contents without a reference count are considered referenced once.
+ */
+public class ContentStore implements Closeable {
+    private static final String TAG = Constants.TAG + ContentStore.class.getSimpleName();
+
+    private static final String ALGORITHM = "SHA-256";
+    private static final Pattern HASH_PATTERN = Pattern.compile("[0-9a-f]{64}");
+    private static final String TMP_DIRECTORY = "tmp";
+    private static final String REFS_SUFFIX = ".refs";
+    private static final long REFS_WRITE_WINDOW_MS = 200;
+
+    private final File mDirectory;
+    private final File mTmpDirectory;
+    private final AtomicFileWriter mRefsWriter = new AtomicFileWriter(REFS_WRITE_WINDOW_MS);
+    private final HashMap<String, Integer> mRefCounts = new HashMap<>();
+    // Number of links in progress, during which the contents must not be deleted
+    private final HashMap<String, Integer> mLinkCounts = new HashMap<>();
+
+    private ContentStore(File directory) {
+        mDirectory = directory;
+        mTmpDirectory = new File(directory, TMP_DIRECTORY);
+    }
+
+    /**
+     * Opens the store in the given directory, creating it if needed.<br/>
+     * Only one instance of the store should be open on a given directory at any time.
+     *
+     * @param directory A directory dedicated to this store.
+     * @return The opened store.
+     * @throws IOException If the directory could not be created.
+     */
+    public static ContentStore open(File directory) throws IOException {
+        ContentStore res = new ContentStore(directory);
+        // Leftovers of interrupted puts
+        if (res.mTmpDirectory.exists()) FileUtil.deleteRecursively(res.mTmpDirectory);
+        if (!res.mTmpDirectory.mkdirs()) throw new IOException("Could not create directory " + res.mTmpDirectory);
+        return res;
+    }
+
+    /**
+     * Adds the contents of the given stream to the store.<br/>
+     * Note: the given stream won't be closed.
+     *
+     * @param in The stream to read.
+     * @return The hash identifying the contents.
+     * @throws IOException If an error occurs while reading or writing.
+     */
+    public String put(InputStream in) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // Never happens: SHA-256 is always available
+            throw new AssertionError(e);
+        }
+        File tmpFile = new File(mTmpDirectory, UUID.randomUUID().toString());
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tmpFile);
+            IoUtil.copy(in, out, digest);
+        } catch (IOException e) {
+            IoUtil.closeSilently(out);
+            tmpFile.delete();
+            throw e;
+        }
+        out.close();
+        String res = StringUtil.toHex(digest.digest());
+
+        synchronized (this) {
+            File contentFile = getContentFile(res);
+            int refCount = getRefCount(res);
+            if (refCount > 0 && contentFile.exists()) {
+                // Already stored: discard the copy
+                Log.d(TAG, "put Content " + res + " already stored");
+                tmpFile.delete();
+            } else {
+                File parent = contentFile.getParentFile();
+                if (!parent.isDirectory() && !parent.mkdirs()) {
+                    tmpFile.delete();
+                    throw new IOException("Could not create directory " + parent);
+                }
+                if (!tmpFile.renameTo(contentFile)) {
+                    tmpFile.delete();
+                    throw new IOException("Could not rename " + tmpFile + " to " + contentFile);
+                }
+                refCount = 0;
+            }
+            setRefCount(res, refCount + 1);
+        }
+        return res;
+    }
+
+    /**
+     * Adds the contents of the given file to the store.
+     *
+     * @param file The file to read.
+     * @return The hash identifying the contents.
+     * @throws IOException If an error occurs while reading or writing.
+     */
+    public String put(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return put(in);
+        } finally {
+            IoUtil.closeSilently(in);
+        }
+    }
+
+    /**
+     * Returns the file containing the contents identified by the given hash.<br/>
+     * The returned file must not be modified.
+     *
+     * @param hash The hash returned by {@code put}.
+     * @return The file, or {@code null} if there are no such contents in the store.
+     * @throws IllegalArgumentException If the hash is not valid.
+     */
+    public synchronized File get(String hash) {
+        validateHash(hash);
+        if (getRefCount(hash) == 0) return null;
+        File res = getContentFile(hash);
+        return res.exists() ? res : null;
+    }
+
+    /**
+     * Returns the number of times the contents identified by the given hash have been added and not released.
+     *
+     * @throws IllegalArgumentException If the hash is not valid.
+     */
+    public synchronized int getReferenceCount(String hash) {
+        validateHash(hash);
+        return getRefCount(hash);
+    }
+
+    /**
+     * Decrements the reference count of the contents identified by the given hash, deleting them if it reaches zero.<br/>
+     * Files created by {@link #link(String, File)} are not affected. If a link is in progress, the contents are deleted when it is done.
+     *
+     * @param hash The hash returned by {@code put}.
+     * @return {@code true} if the contents were deleted (or will be, once the links in progress are done).
+     * @throws IllegalArgumentException If the hash is not valid.
+     */
+    public synchronized boolean release(String hash) {
+        validateHash(hash);
+        int refCount = getRefCount(hash);
+        if (refCount == 0) return false;
+        if (refCount > 1) {
+            setRefCount(hash, refCount - 1);
+            return false;
+        }
+        mRefsWriter.enqueueDelete(getRefsFile(hash));
+        if (mLinkCounts.containsKey(hash)) {
+            // Keep the count in memory until the links are done
+            mRefCounts.put(hash, 0);
+        } else {
+            deleteContent(hash);
+        }
+        return true;
+    }
+
+    /**
+     * Makes the contents identified by the given hash available at the given path.<br/>
+     * A hard link is used when possible (API level 21+, destination on the same file system), otherwise the contents are copied. Either way, the destination
+     * file is independent from the store: it is not affected by {@link #release(String)} and must not be modified if it is a hard link.
+     *
+     * @param hash The hash returned by {@code put}.
+     * @param destination The path to make the contents available at (must not exist).
+     * @throws IOException If there are no such contents in the store, or the link or copy could not be created.
+     * @throws IllegalArgumentException If the hash is not valid.
+     */
+    public void link(String hash, File destination) throws IOException {
+        File contentFile;
+        synchronized (this) {
+            contentFile = get(hash);
+            if (contentFile == null) throw new IOException("No content " + hash + " in the store");
+            Integer linkCount = mLinkCounts.get(hash);
+            mLinkCounts.put(hash, linkCount == null ? 1 : linkCount + 1);
+        }
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && linkLollipop(contentFile, destination)) return;
+            FileUtil.copy(contentFile, destination);
+        } finally {
+            synchronized (this) {
+                int linkCount = mLinkCounts.get(hash);
+                if (linkCount > 1) {
+                    mLinkCounts.put(hash, linkCount - 1);
+                } else {
+                    mLinkCounts.remove(hash);
+                    // Released while linking
+                    if (getRefCount(hash) == 0) deleteContent(hash);
+                }
+            }
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static boolean linkLollipop(File contentFile, File destination) {
+        try {
+            Os.link(contentFile.getPath(), destination.getPath());
+            return true;
+        } catch (ErrnoException e) {
+            // Typically EXDEV (not on the same file system)
+            Log.d(TAG, "link Could not create a hard link to " + destination + ", copying", e);
+            return false;
+        }
+    }
+
+    /**
+     * Writes the pending reference count updates to disk.
+     *
+     * @throws IOException If they could not be written.
+     */
+    public void flush() throws IOException {
+        mRefsWriter.flush();
+    }
+
+    /**
+     * Writes the pending reference count updates to disk.<br/>
+     * The store cannot be modified after this has been called.
+     *
+     * @throws IOException If they could not be written.
+     */
+    @Override
+    public void close() throws IOException {
+        mRefsWriter.close();
+    }
+
+
+    /*
+     * Reference counts.
+     */
+
+    private int getRefCount(String hash) {
+        Integer res = mRefCounts.get(hash);
+        if (res != null) return res;
+        // Don't read a refs file that may be pending deletion
+        if (!getContentFile(hash).exists()) return 0;
+        File refsFile = getRefsFile(hash);
+        // The contents exist, so they have been referenced at least once: a missing refs file means the process died before its batched write was done
+        int refCount = 1;
+        if (refsFile.exists()) {
+            InputStream in = null;
+            try {
+                in = new FileInputStream(refsFile);
+                refCount = Integer.parseInt(IoUtil.readFully(in).trim());
+            } catch (IOException | NumberFormatException e) {
+                Log.w(TAG, "getRefCount Could not read " + refsFile, e);
+                refCount = 1;
+            } finally {
+                IoUtil.closeSilently(in);
+            }
+        }
+        mRefCounts.put(hash, refCount);
+        return refCount;
+    }
+
+    private void deleteContent(String hash) {
+        mRefCounts.remove(hash);
+        File contentFile = getContentFile(hash);
+        contentFile.delete();
+    }
+
+    private void setRefCount(String hash, int refCount) {
+        mRefCounts.put(hash, refCount);
+        mRefsWriter.enqueue(getRefsFile(hash), String.valueOf(refCount).getBytes());
+    }
+
+
+    /*
+     * Paths.
+     */
+
+    private static void validateHash(String hash) {
+        if (!HASH_PATTERN.matcher(hash).matches()) throw new IllegalArgumentException("Invalid hash: \"" + hash + "\"");
+    }
+
+    private File getContentFile(String hash) {
+        // Use the first 2 digits as a sub directory to keep directories small
+        return new File(new File(mDirectory, hash.substring(0, 2)), hash);
+    }
+
+    private File getRefsFile(String hash) {
+        return new File(new File(mDirectory, hash.substring(0, 2)), hash + REFS_SUFFIX);
+    }
+}
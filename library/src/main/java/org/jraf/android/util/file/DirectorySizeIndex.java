@@ -0,0 +1,502 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.util.file;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.util.Log;
+
+import org.jraf.android.util.Constants;
+import org.jraf.android.util.io.IoUtil;
+
+/**
+ * Index of the sizes and last access times of the files in a directory (recursively), used to trim the directory to a byte budget or a max age without
+ * listing it.<br/>
+ * <br/>
+ * The index is kept up to date incrementally, by its callers: writes must be recorded with {@link #onFileWritten(File)}, reads with
+ * {@link #onFileAccessed(File)}, and deletions with {@link #onFileDeleted(File)}. Whole trees should be deleted with
+ * {@link #deleteRecursively(File, FileFilter, int)}, which records all the deletions at once.<br/>
+ * Since the files are ordered by last access, {@link #trimToSize(long)} and {@link #trimOlderThan(long)} only look at the files they delete.<br/>
+ * <br/>
+ * The index is persisted in an append-only log inside the directory, compacted when it grows too much. The directory is only listed the first time, or when
+ * {@link #rescan()} is called (for instance if files are known to have been written without being recorded). Files which are in the index but have been
+ * deleted by other means are dropped when encountered.
+ */
+public class DirectorySizeIndex implements Closeable {
+    private static final String TAG = Constants.TAG + DirectorySizeIndex.class.getSimpleName();
+
+    /**
+     * Name of the file where the index is persisted, inside the indexed directory.
+     */
+    public static final String INDEX_FILE = ".size_index";
+
+    private static final String INDEX_FILE_TMP = ".size_index.tmp";
+    private static final String MAGIC = "org.jraf.android.util.file.DirectorySizeIndex 1";
+    private static final String FILE = "F";
+    private static final String DELETE = "D";
+    private static final String CHARSET = "UTF-8";
+    private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000;
+
+    private final File mDirectory;
+    private final String mDirectoryPath;
+    private final File mIndexFile;
+    private final File mIndexFileTmp;
+    private final LinkedHashMap<String, FileInfo> mEntries = new LinkedHashMap<>(0, .75F, true);
+    private long mTotalSize;
+    private int mRedundantOpCount;
+    private Writer mWriter;
+
+    private static class FileInfo {
+        private long mSize;
+        private long mLastAccess;
+
+        private FileInfo(long size, long lastAccess) {
+            mSize = size;
+            mLastAccess = lastAccess;
+        }
+    }
+
+    private DirectorySizeIndex(File directory) {
+        mDirectory = directory.getAbsoluteFile();
+        mDirectoryPath = mDirectory.getPath() + File.separator;
+        mIndexFile = new File(mDirectory, INDEX_FILE);
+        mIndexFileTmp = new File(mDirectory, INDEX_FILE_TMP);
+    }
+
+    /**
+     * Opens the index of the given directory, creating the directory if needed.<br/>
+     * If the index doesn't exist yet, the directory is listed to create it.<br/>
+     * Only one index should be open on a given directory at any time.<br/>
+     * This accesses the disk and should not be called from the UI thread.
+     *
+     * @param directory The directory to index.
+     * @return The opened index.
+     * @throws IOException If the directory could not be created, or the index could not be read or written.
+     */
+    public static DirectorySizeIndex open(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) throw new IOException("Could not create directory " + directory);
+        DirectorySizeIndex res = new DirectorySizeIndex(directory);
+        synchronized (res) {
+            boolean loaded = false;
+            if (res.mIndexFile.exists()) {
+                try {
+                    if (res.read()) {
+                        res.mWriter = newWriter(res.mIndexFile, true);
+                    } else {
+                        // Appending after a truncated line would merge the next record into it: rewrite the index first
+                        res.compact();
+                    }
+                    loaded = true;
+                } catch (IOException e) {
+                    Log.w(TAG, "open Index of " + directory + " is corrupt, rescanning", e);
+                }
+            }
+            if (!loaded) res.rescan();
+        }
+        Log.d(TAG, "open directory=" + directory + " files=" + res.mEntries.size() + " totalSize=" + res.mTotalSize);
+        return res;
+    }
+
+    private static Writer newWriter(File file, boolean append) throws FileNotFoundException {
+        try {
+            return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, append), CHARSET));
+        } catch (UnsupportedEncodingException e) {
+            // Never happens: UTF-8 is always supported
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Reads the index file, populating the entries.
+     *
+     * @return {@code true} if the file was read completely, {@code false} if it ends with an unexpected (probably truncated) line and must be rewritten.
+     */
+    private boolean read() throws IOException {
+        mEntries.clear();
+        mTotalSize = 0;
+        // If the process died while appending, the last line is truncated, even if it looks valid
+        boolean truncated = !FileUtil.endsWithLineFeed(mIndexFile);
+        boolean complete = !truncated;
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(mIndexFile), CHARSET));
+        try {
+            if (!MAGIC.equals(reader.readLine())) throw new IOException("Unexpected index header");
+            int lineCount = 0;
+            String line = reader.readLine();
+            while (line != null) {
+                String nextLine = reader.readLine();
+                if (nextLine == null && truncated) {
+                    Log.w(TAG, "read Ignoring truncated index line: " + line);
+                    break;
+                }
+                lineCount++;
+                // Lines are either "F <size> <lastAccess> <path>" or "D <path>"
+                String[] parts = line.split(" ", 4);
+                if (FILE.equals(parts[0]) && parts.length == 4) {
+                    long size;
+                    long lastAccess;
+                    try {
+                        size = Long.parseLong(parts[1]);
+                        lastAccess = Long.parseLong(parts[2]);
+                    } catch (NumberFormatException e) {
+                        throw new IOException("Unexpected index line: " + line);
+                    }
+                    put(parts[3], size, lastAccess);
+                } else if (DELETE.equals(parts[0]) && parts.length >= 2) {
+                    FileInfo entry = mEntries.remove(line.substring(DELETE.length() + 1));
+                    if (entry != null) mTotalSize -= entry.mSize;
+                } else {
+                    // Probably a line truncated before a later append: ignore it and the following ones, the index will be rewritten
+                    Log.w(TAG, "read Ignoring unexpected index line: " + line);
+                    complete = false;
+                    break;
+                }
+                line = nextLine;
+            }
+            mRedundantOpCount = Math.max(mRedundantOpCount, lineCount - mEntries.size());
+        } finally {
+            IoUtil.closeSilently(reader);
+        }
+        return complete;
+    }
+
+    private void put(String path, long size, long lastAccess) {
+        FileInfo entry = mEntries.remove(path);
+        if (entry != null) mTotalSize -= entry.mSize;
+        // Removing then putting moves the entry to the end, even if the previous last access was newer
+        mEntries.put(path, new FileInfo(size, lastAccess));
+        mTotalSize += size;
+    }
+
+    /**
+     * Lists the whole directory to rebuild the index from scratch, ordering the files by last modification time.<br/>
+     * This accesses the disk and should not be called from the UI thread.
+     *
+     * @throws IOException If the index could not be written.
+     */
+    public synchronized void rescan() throws IOException {
+        long start = System.currentTimeMillis();
+        final LinkedHashMap<String, FileInfo> scanned = new LinkedHashMap<>();
+        ArrayDeque<File> directories = new ArrayDeque<>();
+        directories.add(mDirectory);
+        while (!directories.isEmpty()) {
+            File[] children = directories.poll().listFiles();
+            if (children == null) continue;
+            for (File child : children) {
+                if (child.isDirectory()) {
+                    directories.add(child);
+                } else if (!child.equals(mIndexFile) && !child.equals(mIndexFileTmp)) {
+                    scanned.put(getRelativePath(child), new FileInfo(child.length(), child.lastModified()));
+                }
+            }
+        }
+        List<String> paths = new ArrayList<>(scanned.keySet());
+        Collections.sort(paths, new Comparator<String>() {
+            @Override
+            public int compare(String lhs, String rhs) {
+                long lhsLastAccess = scanned.get(lhs).mLastAccess;
+                long rhsLastAccess = scanned.get(rhs).mLastAccess;
+                return lhsLastAccess < rhsLastAccess ? -1 : (lhsLastAccess == rhsLastAccess ? 0 : 1);
+            }
+        });
+        mEntries.clear();
+        mTotalSize = 0;
+        for (String path : paths) {
+            FileInfo entry = scanned.get(path);
+            put(path, entry.mSize, entry.mLastAccess);
+        }
+        compact();
+        Log.d(TAG, "rescan directory=" + mDirectory + " files=" + mEntries.size() + " in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * Writes a new index containing only the current entries, replacing the current one.
+     */
+    private void compact() throws IOException {
+        IoUtil.closeSilently(mWriter);
+        Writer writer = newWriter(mIndexFileTmp, false);
+        try {
+            writer.write(MAGIC + '\n');
+            for (Map.Entry<String, FileInfo> entry : mEntries.entrySet()) {
+                writeFileLine(writer, entry.getKey(), entry.getValue());
+            }
+        } finally {
+            IoUtil.closeSilently(writer);
+        }
+        if (!mIndexFileTmp.renameTo(mIndexFile)) throw new IOException("Could not rename " + mIndexFileTmp + " to " + mIndexFile);
+        mWriter = newWriter(mIndexFile, true);
+        mRedundantOpCount = 0;
+    }
+
+    private static void writeFileLine(Writer writer, String path, FileInfo entry) throws IOException {
+        writer.write(FILE + ' ' + entry.mSize + ' ' + entry.mLastAccess + ' ' + path + '\n');
+    }
+
+    private void append(String path, FileInfo entry) {
+        if (mWriter == null) return;
+        try {
+            if (entry == null) {
+                mWriter.write(DELETE + ' ' + path + '\n');
+            } else {
+                writeFileLine(mWriter, path, entry);
+            }
+            if (mRedundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD && mRedundantOpCount >= mEntries.size()) compact();
+        } catch (IOException e) {
+            Log.w(TAG, "append Could not write to the index", e);
+        }
+    }
+
+    /**
+     * Returns the path of the given file relative to the indexed directory, or {@code null} if it is not inside it.
+     */
+    private String getRelativePath(File file) {
+        String path = file.getAbsolutePath();
+        if (!path.startsWith(mDirectoryPath)) return null;
+        String res = path.substring(mDirectoryPath.length());
+        // Paths are stored one per line
+        if (res.indexOf('\n') != -1) return null;
+        return res;
+    }
+
+    /**
+     * Records that the given file has been written (or created), using its current size.
+     *
+     * @param file A file inside the indexed directory. Other files are ignored.
+     */
+    public synchronized void onFileWritten(File file) {
+        String path = getRelativePath(file);
+        if (path == null || file.equals(mIndexFile) || file.equals(mIndexFileTmp)) return;
+        if (mEntries.containsKey(path)) mRedundantOpCount++;
+        put(path, file.length(), System.currentTimeMillis());
+        append(path, mEntries.get(path));
+    }
+
+    /**
+     * Records that the given file has been read, making it the last file to be trimmed.
+     *
+     * @param file A file inside the indexed directory. Other files are ignored.
+     */
+    public synchronized void onFileAccessed(File file) {
+        String path = getRelativePath(file);
+        if (path == null) return;
+        FileInfo entry = mEntries.get(path);
+        if (entry == null) return;
+        mRedundantOpCount++;
+        put(path, entry.mSize, System.currentTimeMillis());
+        append(path, mEntries.get(path));
+    }
+
+    /**
+     * Records that the given file has been deleted.
+     *
+     * @param file A file inside the indexed directory. Other files are ignored.
+     */
+    public synchronized void onFileDeleted(File file) {
+        String path = getRelativePath(file);
+        if (path == null) return;
+        FileInfo entry = mEntries.remove(path);
+        if (entry == null) return;
+        mTotalSize -= entry.mSize;
+        mRedundantOpCount += 2;
+        append(path, null);
+    }
+
+    /**
+     * Deletes a file or directory with {@link FileUtil#deleteRecursively(File, FileFilter, int)}, then records the deletions.<br/>
+     * The files are deleted without taking the lock of the index, and the deletions are recorded afterwards in a single pass over the indexed files inside
+     * {@code fileOrDirectory}.<br/>
+     * This accesses the disk and should not be called from the UI thread.
+     *
+     * @param fileOrDirectory A file or directory inside the indexed directory, or the indexed directory itself (its index file and directories are kept).
+     * @param criteria The criteria to use to choose to delete only certain files, or {@code null} to delete all of them.
+     * @param parallelism The number of threads deleting files (must be > 0).
+     * @return The number of files and directories deleted and bytes freed.
+     * @see FileUtil#deleteRecursively(File, FileFilter, int)
+     */
+    public FileUtil.DeleteResult deleteRecursively(File fileOrDirectory, final FileFilter criteria, int parallelism) {
+        File absoluteFile = fileOrDirectory.getAbsoluteFile();
+        boolean isRoot = absoluteFile.equals(mDirectory);
+        FileFilter deleteCriteria = criteria;
+        if (isRoot) {
+            // Keep the index file
+            deleteCriteria = new FileFilter() {
+                @Override
+                public boolean accept(File file) {
+                    if (file.equals(mIndexFile) || file.equals(mIndexFileTmp)) return false;
+                    return criteria == null || criteria.accept(file);
+                }
+            };
+        }
+        FileUtil.DeleteResult res = FileUtil.deleteRecursively(absoluteFile, deleteCriteria, parallelism);
+        onTreeDeleted(isRoot ? null : getRelativePath(absoluteFile));
+        return res;
+    }
+
+    /**
+     * Drops the entries of the files which don't exist anymore at, or under, the given relative path ({@code null} for the whole index).
+     */
+    private synchronized void onTreeDeleted(String path) {
+        String prefix = path == null ? null : path + File.separator;
+        for (Iterator<Map.Entry<String, FileInfo>> i = mEntries.entrySet().iterator(); i.hasNext(); ) {
+            Map.Entry<String, FileInfo> entry = i.next();
+            String entryPath = entry.getKey();
+            if (path != null && !entryPath.equals(path) && !entryPath.startsWith(prefix)) continue;
+            if (new File(mDirectory, entryPath).exists()) continue;
+            i.remove();
+            mTotalSize -= entry.getValue().mSize;
+            mRedundantOpCount += 2;
+            append(entryPath, null);
+        }
+        flushSilently();
+    }
+
+    /**
+     * Returns the sum of the sizes of the indexed files, in bytes.
+     */
+    public synchronized long getTotalSize() {
+        return mTotalSize;
+    }
+
+    /**
+     * Returns the number of indexed files.
+     */
+    public synchronized int getFileCount() {
+        return mEntries.size();
+    }
+
+    /**
+     * Returns the indexed directory.
+     */
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    /**
+     * Deletes the least recently accessed files until the total size is at most {@code maxSize}.
+     *
+     * @param maxSize The byte budget.
+     * @return The number of bytes freed.
+     */
+    public synchronized long trimToSize(long maxSize) {
+        long previousTotalSize = mTotalSize;
+        for (Iterator<Map.Entry<String, FileInfo>> i = mEntries.entrySet().iterator(); i.hasNext() && mTotalSize > maxSize; ) {
+            Map.Entry<String, FileInfo> entry = i.next();
+            if (!delete(entry.getKey())) continue;
+            i.remove();
+            mTotalSize -= entry.getValue().mSize;
+            mRedundantOpCount += 2;
+            append(entry.getKey(), null);
+        }
+        flushSilently();
+        Log.d(TAG, "trimToSize directory=" + mDirectory + " totalSize " + previousTotalSize + " -> " + mTotalSize);
+        return previousTotalSize - mTotalSize;
+    }
+
+    /**
+     * Deletes the files which have not been accessed for more than {@code maxAgeMs}.<br/>
+     * This is equivalent to using a {@link FileUtil.ExpiredFileFilter} with {@link FileUtil#deleteRecursively(File, java.io.FileFilter)}, except that only the
+     * expired files are looked at, and the last access time is used instead of the last modification time.
+     *
+     * @param maxAgeMs The max age of the files to keep.
+     * @return The number of bytes freed.
+     */
+    public synchronized long trimOlderThan(long maxAgeMs) {
+        long previousTotalSize = mTotalSize;
+        long limit = System.currentTimeMillis() - maxAgeMs;
+        for (Iterator<Map.Entry<String, FileInfo>> i = mEntries.entrySet().iterator(); i.hasNext(); ) {
+            Map.Entry<String, FileInfo> entry = i.next();
+            if (entry.getValue().mLastAccess >= limit) break;
+            if (!delete(entry.getKey())) continue;
+            i.remove();
+            mTotalSize -= entry.getValue().mSize;
+            mRedundantOpCount += 2;
+            append(entry.getKey(), null);
+        }
+        flushSilently();
+        Log.d(TAG, "trimOlderThan directory=" + mDirectory + " totalSize " + previousTotalSize + " -> " + mTotalSize);
+        return previousTotalSize - mTotalSize;
+    }
+
+    /**
+     * @return {@code true} if the file was deleted or didn't exist anymore.
+     */
+    private boolean delete(String path) {
+        File file = new File(mDirectory, path);
+        if (file.delete() || !file.exists()) return true;
+        Log.w(TAG, "delete Could not delete " + file);
+        return false;
+    }
+
+    private void flushSilently() {
+        if (mWriter == null) return;
+        try {
+            mWriter.flush();
+        } catch (IOException e) {
+            Log.w(TAG, "flushSilently Could not write to the index", e);
+        }
+    }
+
+    /**
+     * Writes the pending updates of the index to disk.<br/>
+     * Updates which are not flushed are lost if the process is killed, in which case recently written files won't be trimmed until {@link #rescan()} is
+     * called.
+     *
+     * @throws IOException If the index could not be written.
+     */
+    public synchronized void flush() throws IOException {
+        if (mWriter != null) mWriter.flush();
+    }
+
+    /**
+     * Writes the pending updates to disk.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (mWriter == null) return;
+        try {
+            mWriter.close();
+        } finally {
+            mWriter = null;
+        }
+    }
+}
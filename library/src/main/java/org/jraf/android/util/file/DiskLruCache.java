@@ -0,0 +1,625 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.util.file;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import android.util.Log;
+
+import org.jraf.android.util.Constants;
+import org.jraf.android.util.io.IoUtil;
+
+/**
+ * A cache of files on disk, bounded by a total size in bytes, evicting the least recently used entries first.<br/>
+ * Each entry is a single file, identified by a key which must match {@code [a-z0-9_-]{1,120}}.<br/>
+ * <br/>
+ * Entries are written through an {@link Editor}, to a temporary file which is renamed to its final name when the edit is committed, so readers never see a
+ * partially written entry. Reading is not locked: a file returned by {@link #get(String)} or a stream returned by {@link #getInputStream(String)} can be read
+ * concurrently with edits and removals of the same entry.<br/>
+ * <br/>
+ * The list of entries and their access order are persisted in a journal, so that the cache survives process restarts without having to list its
+ * directory. When the size exceeds the maximum, or the journal has grown too much, entries are evicted and the journal compacted in a background thread.
+ */
+public class DiskLruCache implements Closeable {
+    private static final String TAG = Constants.TAG + DiskLruCache.class.getSimpleName();
+
+    private static final String JOURNAL_FILE = "journal.log";
+    private static final String JOURNAL_FILE_TMP = "journal.log.tmp";
+    private static final String MAGIC = "org.jraf.android.util.file.DiskLruCache";
+    private static final String VERSION = "1";
+    private static final String CLEAN = "CLEAN";
+    private static final String READ = "READ";
+    private static final String REMOVE = "REMOVE";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final String CHARSET = "US-ASCII";
+    private static final Pattern KEY_PATTERN = Pattern.compile("[a-z0-9_-]{1,120}");
+    private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000;
+
+    private final File mDirectory;
+    private final File mJournalFile;
+    private final File mJournalFileTmp;
+    private long mMaxSize;
+    private long mSize;
+    private int mRedundantOpCount;
+    private Writer mJournalWriter;
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(0, .75F, true);
+
+    private final ThreadPoolExecutor mExecutor = new ThreadPoolExecutor(0, 1, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+    private final Runnable mCleanupRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (DiskLruCache.this) {
+                if (mJournalWriter == null) return;
+                try {
+                    trimToSize();
+                    if (isJournalRebuildRequired()) rebuildJournal();
+                } catch (IOException e) {
+                    Log.w(TAG, "Could not clean up the cache in " + mDirectory, e);
+                }
+            }
+        }
+    };
+
+    private DiskLruCache(File directory, long maxSize) {
+        mDirectory = directory;
+        mJournalFile = new File(directory, JOURNAL_FILE);
+        mJournalFileTmp = new File(directory, JOURNAL_FILE_TMP);
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Opens the cache in the given directory, creating it if needed.<br/>
+     * Only one instance of the cache should be open on a given directory at any time.<br/>
+     * This accesses the disk and should not be called from the UI thread.
+     *
+     * @param directory A directory dedicated to this cache (it will be created if it doesn't exist).
+     * @param maxSize The maximum number of bytes the cache should use (must be > 0).
+     * @return The opened cache.
+     * @throws IOException If the directory or the journal could not be created or read.
+     * @throws IllegalArgumentException If {@code maxSize} is less than or equal to zero.
+     */
+    public static DiskLruCache open(File directory, long maxSize) throws IOException {
+        if (maxSize <= 0) throw new IllegalArgumentException("maxSize must be > 0");
+        if (!directory.isDirectory() && !directory.mkdirs()) throw new IOException("Could not create directory " + directory);
+        DiskLruCache res = new DiskLruCache(directory, maxSize);
+        synchronized (res) {
+            if (res.mJournalFile.exists()) {
+                try {
+                    if (res.readJournal()) {
+                        res.mJournalWriter = newJournalWriter(res.mJournalFile, true);
+                    } else {
+                        // Appending after a truncated line would merge the next record into it: rewrite the journal first
+                        res.rebuildJournal();
+                    }
+                } catch (IOException e) {
+                    Log.w(TAG, "open Journal of " + directory + " is corrupt, clearing the cache", e);
+                    res.mEntries.clear();
+                    res.mSize = 0;
+                    FileUtil.deleteRecursively(directory);
+                    if (!directory.mkdirs()) throw new IOException("Could not create directory " + directory);
+                }
+            }
+            res.deleteTemporaryFiles();
+            if (res.mJournalWriter == null) res.rebuildJournal();
+        }
+        Log.d(TAG, "open directory=" + directory + " entries=" + res.mEntries.size() + " size=" + res.mSize);
+        return res;
+    }
+
+    private static Writer newJournalWriter(File file, boolean append) throws FileNotFoundException {
+        try {
+            return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, append), CHARSET));
+        } catch (UnsupportedEncodingException e) {
+            // Never happens: US-ASCII is always supported
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Reads the journal, populating the entries.
+     *
+     * @return {@code true} if the journal was read completely, {@code false} if it ends with an unexpected (probably truncated) line and must be rebuilt.
+     */
+    private boolean readJournal() throws IOException {
+        // If the process died while appending, the last line is truncated, even if it looks valid
+        boolean truncated = !FileUtil.endsWithLineFeed(mJournalFile);
+        boolean complete = !truncated;
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(mJournalFile), CHARSET));
+        try {
+            if (!MAGIC.equals(reader.readLine()) || !VERSION.equals(reader.readLine())) {
+                throw new IOException("Unexpected journal header");
+            }
+            int lineCount = 0;
+            String line = reader.readLine();
+            while (line != null) {
+                String nextLine = reader.readLine();
+                if (nextLine == null && truncated) {
+                    Log.w(TAG, "readJournal Ignoring truncated journal line: " + line);
+                    break;
+                }
+                if (!readJournalLine(line)) {
+                    // Probably a line truncated before a later append: ignore it and the following ones, the journal will be rebuilt
+                    Log.w(TAG, "readJournal Ignoring unexpected journal line: " + line);
+                    complete = false;
+                    break;
+                }
+                lineCount++;
+                line = nextLine;
+            }
+            mRedundantOpCount = Math.max(mRedundantOpCount, lineCount - mEntries.size());
+        } finally {
+            IoUtil.closeSilently(reader);
+        }
+
+        // Drop the entries whose file has disappeared
+        for (Iterator<Entry> i = mEntries.values().iterator(); i.hasNext(); ) {
+            Entry entry = i.next();
+            if (entry.getCleanFile().exists()) {
+                mSize += entry.mLength;
+            } else {
+                i.remove();
+                mRedundantOpCount++;
+            }
+        }
+        return complete;
+    }
+
+    private boolean readJournalLine(String line) {
+        String[] parts = line.split(" ");
+        if (parts.length < 2 || !KEY_PATTERN.matcher(parts[1]).matches()) return false;
+        String key = parts[1];
+        if (CLEAN.equals(parts[0]) && parts.length == 3) {
+            Entry entry = new Entry(key);
+            try {
+                entry.mLength = Long.parseLong(parts[2]);
+            } catch (NumberFormatException e) {
+                return false;
+            }
+            entry.mReadable = true;
+            mEntries.put(key, entry);
+            return true;
+        }
+        if (READ.equals(parts[0]) && parts.length == 2) {
+            // Just updates the access order
+            mEntries.get(key);
+            return true;
+        }
+        if (REMOVE.equals(parts[0]) && parts.length == 2) {
+            mEntries.remove(key);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Deletes the temporary files of edits which were not completed, for instance because the process was killed.
+     */
+    private void deleteTemporaryFiles() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            if (file.getName().endsWith(TMP_SUFFIX) && !file.equals(mJournalFileTmp)) file.delete();
+        }
+    }
+
+    /**
+     * Writes a new compact journal containing only the current entries, replacing the current one.
+     */
+    private void rebuildJournal() throws IOException {
+        IoUtil.closeSilently(mJournalWriter);
+        Writer writer = newJournalWriter(mJournalFileTmp, false);
+        try {
+            writer.write(MAGIC + "\n" + VERSION + "\n");
+            for (Entry entry : mEntries.values()) {
+                if (entry.mReadable) writer.write(CLEAN + ' ' + entry.mKey + ' ' + entry.mLength + '\n');
+            }
+        } finally {
+            IoUtil.closeSilently(writer);
+        }
+        if (!mJournalFileTmp.renameTo(mJournalFile)) throw new IOException("Could not rename " + mJournalFileTmp + " to " + mJournalFile);
+        mJournalWriter = newJournalWriter(mJournalFile, true);
+        mRedundantOpCount = 0;
+    }
+
+    private boolean isJournalRebuildRequired() {
+        return mRedundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD && mRedundantOpCount >= mEntries.size();
+    }
+
+    private void checkNotClosed() {
+        if (mJournalWriter == null) throw new IllegalStateException("The cache is closed");
+    }
+
+    private static void validateKey(String key) {
+        if (!KEY_PATTERN.matcher(key).matches()) throw new IllegalArgumentException("Keys must match " + KEY_PATTERN.pattern() + ": \"" + key + "\"");
+    }
+
+    private void scheduleCleanupIfNeeded() {
+        if (mSize > mMaxSize || isJournalRebuildRequired()) mExecutor.execute(mCleanupRunnable);
+    }
+
+    /**
+     * Returns the file of the entry with the given key, and marks it as the most recently used.<br/>
+     * The returned file must not be modified. It may be deleted at any time by an eviction or an edit: use {@link #getInputStream(String)} to guarantee the
+     * contents can be read completely.
+     *
+     * @param key The key of the entry.
+     * @return The file of the entry, or {@code null} if there is no such entry.
+     * @throws IllegalStateException If the cache is closed.
+     * @throws IllegalArgumentException If the key is not valid.
+     */
+    public synchronized File get(String key) {
+        checkNotClosed();
+        validateKey(key);
+        Entry entry = mEntries.get(key);
+        if (entry == null || !entry.mReadable) return null;
+        File res = entry.getCleanFile();
+        if (!res.exists()) {
+            // Deleted behind our back
+            removeMissingEntry(entry);
+            return null;
+        }
+        journalRead(key);
+        return res;
+    }
+
+    /**
+     * Returns a stream to read the entry with the given key, and marks it as the most recently used.<br/>
+     * The stream stays valid even if the entry is evicted or replaced while it is being read.
+     *
+     * @param key The key of the entry.
+     * @return A stream to read the entry, which must be closed by the caller, or {@code null} if there is no such entry.
+     * @throws IllegalStateException If the cache is closed.
+     * @throws IllegalArgumentException If the key is not valid.
+     */
+    public synchronized InputStream getInputStream(String key) {
+        File file = get(key);
+        if (file == null) return null;
+        try {
+            return new FileInputStream(file);
+        } catch (FileNotFoundException e) {
+            removeMissingEntry(mEntries.get(key));
+            return null;
+        }
+    }
+
+    private void journalRead(String key) {
+        mRedundantOpCount++;
+        try {
+            // Not flushed: losing a READ line only affects the eviction order
+            mJournalWriter.write(READ + ' ' + key + '\n');
+        } catch (IOException e) {
+            Log.w(TAG, "journalRead Could not write to the journal", e);
+        }
+        if (isJournalRebuildRequired()) mExecutor.execute(mCleanupRunnable);
+    }
+
+    /**
+     * Starts editing the entry with the given key.<br/>
+     * The new contents must be written to {@link Editor#getFile()} (or {@link Editor#newOutputStream()}), then {@link Editor#commit()} or
+     * {@link Editor#abort()} must be called. Until then, readers keep seeing the previous contents, if any.
+     *
+     * @param key The key of the entry.
+     * @return An editor, or {@code null} if the entry is already being edited.
+     * @throws IllegalStateException If the cache is closed.
+     * @throws IllegalArgumentException If the key is not valid.
+     */
+    public synchronized Editor edit(String key) {
+        checkNotClosed();
+        validateKey(key);
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            entry = new Entry(key);
+            mEntries.put(key, entry);
+        } else if (entry.mCurrentEditor != null) {
+            return null;
+        }
+        Editor res = new Editor(entry);
+        entry.mCurrentEditor = res;
+        return res;
+    }
+
+    private synchronized void completeEdit(Editor editor, boolean success) throws IOException {
+        Entry entry = editor.mEntry;
+        if (entry.mCurrentEditor != editor) throw new IllegalStateException("Edit already completed");
+        entry.mCurrentEditor = null;
+        File tmpFile = entry.getTmpFile();
+        if (mJournalWriter == null) {
+            // Closed in the meantime
+            tmpFile.delete();
+            if (success) throw new IllegalStateException("The cache is closed");
+            return;
+        }
+        if (success && !tmpFile.exists()) {
+            Log.w(TAG, "completeEdit Nothing was written for entry " + entry.mKey + ", aborting");
+            success = false;
+        }
+        if (!success) {
+            tmpFile.delete();
+            if (!entry.mReadable) mEntries.remove(entry.mKey);
+            return;
+        }
+
+        long length = tmpFile.length();
+        if (!tmpFile.renameTo(entry.getCleanFile())) {
+            tmpFile.delete();
+            if (!entry.mReadable) mEntries.remove(entry.mKey);
+            throw new IOException("Could not rename " + tmpFile + " to " + entry.getCleanFile());
+        }
+        if (entry.mReadable) mRedundantOpCount++;
+        mSize += length - entry.mLength;
+        entry.mLength = length;
+        entry.mReadable = true;
+        mJournalWriter.write(CLEAN + ' ' + entry.mKey + ' ' + length + '\n');
+        mJournalWriter.flush();
+        scheduleCleanupIfNeeded();
+    }
+
+    /**
+     * Removes the entry with the given key, if it exists and is not being edited.
+     *
+     * @param key The key of the entry.
+     * @return {@code true} if an entry was removed.
+     * @throws IllegalStateException If the cache is closed.
+     * @throws IllegalArgumentException If the key is not valid.
+     */
+    public synchronized boolean remove(String key) {
+        checkNotClosed();
+        validateKey(key);
+        Entry entry = mEntries.get(key);
+        if (entry == null || entry.mCurrentEditor != null || !entry.mReadable) return false;
+        removeEntry(entry);
+        return true;
+    }
+
+    private void removeEntry(Entry entry) {
+        File file = entry.getCleanFile();
+        if (file.exists() && !file.delete()) Log.w(TAG, "removeEntry Could not delete " + file);
+        mSize -= entry.mLength;
+        mEntries.remove(entry.mKey);
+        journalRemove(entry.mKey);
+    }
+
+    /**
+     * Removes an entry whose file has been deleted behind our back.<br/>
+     * If it is being edited, it is only marked unreadable, so that its editor still finds it (and accounts for its size) when the edit is completed.
+     */
+    private void removeMissingEntry(Entry entry) {
+        if (entry.mCurrentEditor == null) {
+            removeEntry(entry);
+            return;
+        }
+        mSize -= entry.mLength;
+        entry.mLength = 0;
+        entry.mReadable = false;
+        journalRemove(entry.mKey);
+    }
+
+    private void journalRemove(String key) {
+        mRedundantOpCount++;
+        try {
+            mJournalWriter.write(REMOVE + ' ' + key + '\n');
+            mJournalWriter.flush();
+        } catch (IOException e) {
+            Log.w(TAG, "journalRemove Could not write to the journal", e);
+        }
+        if (isJournalRebuildRequired()) mExecutor.execute(mCleanupRunnable);
+    }
+
+    /**
+     * Evicts the least recently used entries until the size is below the maximum.
+     */
+    private void trimToSize() {
+        if (mSize <= mMaxSize) return;
+        int removedCount = 0;
+        long previousSize = mSize;
+        // Copy the entries since the map is modified while iterating
+        for (Entry entry : new ArrayList<>(mEntries.values())) {
+            if (mSize <= mMaxSize) break;
+            if (entry.mCurrentEditor != null || !entry.mReadable) continue;
+            removeEntry(entry);
+            removedCount++;
+        }
+        Log.d(TAG, "trimToSize Evicted " + removedCount + " entries, size " + previousSize + " -> " + mSize);
+    }
+
+    /**
+     * Returns the number of bytes used by the entries of the cache.
+     */
+    public synchronized long size() {
+        return mSize;
+    }
+
+    /**
+     * Returns the maximum number of bytes the cache should use.
+     */
+    public synchronized long getMaxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * Changes the maximum number of bytes the cache should use, evicting entries in the background if needed.
+     *
+     * @throws IllegalArgumentException If {@code maxSize} is less than or equal to zero.
+     */
+    public synchronized void setMaxSize(long maxSize) {
+        if (maxSize <= 0) throw new IllegalArgumentException("maxSize must be > 0");
+        mMaxSize = maxSize;
+        if (mJournalWriter != null) scheduleCleanupIfNeeded();
+    }
+
+    /**
+     * Returns the directory of this cache.
+     */
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    /**
+     * Evicts entries until the size is below the maximum and writes the pending journal lines to disk.
+     *
+     * @throws IOException If the journal could not be written.
+     * @throws IllegalStateException If the cache is closed.
+     */
+    public synchronized void flush() throws IOException {
+        checkNotClosed();
+        trimToSize();
+        mJournalWriter.flush();
+    }
+
+    /**
+     * Closes the cache. Edits in progress are aborted.<br/>
+     * The cache cannot be used after this has been called.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (mJournalWriter == null) return;
+        for (Entry entry : new ArrayList<>(mEntries.values())) {
+            if (entry.mCurrentEditor != null) entry.mCurrentEditor.abort();
+        }
+        trimToSize();
+        try {
+            mJournalWriter.close();
+        } finally {
+            mJournalWriter = null;
+            mExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Closes the cache and deletes its directory, including all the entries.
+     */
+    public void delete() throws IOException {
+        close();
+        FileUtil.deleteRecursively(mDirectory);
+    }
+
+
+    /*
+     * Entries.
+     */
+
+    private class Entry {
+        private final String mKey;
+        private long mLength;
+        private boolean mReadable;
+        private Editor mCurrentEditor;
+
+        private Entry(String key) {
+            mKey = key;
+        }
+
+        private File getCleanFile() {
+            return new File(mDirectory, mKey);
+        }
+
+        private File getTmpFile() {
+            return new File(mDirectory, mKey + TMP_SUFFIX);
+        }
+    }
+
+    /**
+     * Edits the contents of an entry.
+     */
+    public final class Editor {
+        private final Entry mEntry;
+
+        private Editor(Entry entry) {
+            mEntry = entry;
+        }
+
+        /**
+         * Returns the key of the entry being edited.
+         */
+        public String getKey() {
+            return mEntry.mKey;
+        }
+
+        /**
+         * Returns the temporary file to write the new contents to.
+         */
+        public File getFile() {
+            return mEntry.getTmpFile();
+        }
+
+        /**
+         * Returns a new stream to write the new contents to. It must be closed before calling {@link #commit()}.
+         */
+        public OutputStream newOutputStream() throws FileNotFoundException {
+            return new FileOutputStream(getFile());
+        }
+
+        /**
+         * Atomically replaces the contents of the entry by the written contents, making them visible to readers.
+         *
+         * @throws IOException If the written file could not be moved in place (in that case the edit is aborted).
+         * @throws IllegalStateException If the edit was already committed or aborted.
+         */
+        public void commit() throws IOException {
+            completeEdit(this, true);
+        }
+
+        /**
+         * Discards the written contents, keeping the previous contents of the entry, if any.
+         *
+         * @throws IllegalStateException If the edit was already committed or aborted.
+         */
+        public void abort() {
+            try {
+                completeEdit(this, false);
+            } catch (IOException e) {
+                // Never happens when aborting
+                throw new AssertionError(e);
+            }
+        }
+
+        /**
+         * Aborts the edit if it was not committed yet. Convenient in a {@code finally} block.
+         */
+        public void abortUnlessCommitted() {
+            synchronized (DiskLruCache.this) {
+                if (mEntry.mCurrentEditor == this) abort();
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.util.file;
+
+/**
+ * Replaces or strips the characters of a string which are not in a given set of allowed characters, to make it suitable to be used as a file name.<br/>
+ * The allowed characters are stored in a lookup table built once, so checking a character costs a single array access.
+ */
+public class FileNameSanitizer {
+    /**
+     * Characters allowed by {@link #DEFAULT}: ASCII letters and digits, a few punctuation characters, and a few accented letters.
+     */
+    public static final String DEFAULT_ALLOWED_CHARS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789 -_.,()\u00E9\u00E0\u00E7\u00F4\u00EE";
+
+    /**
+     * Sanitizer using {@link #DEFAULT_ALLOWED_CHARS}, used by {@link FileUtil#getValidFileName(String, Character)}.
+     */
+    public static final FileNameSanitizer DEFAULT = new FileNameSanitizer(DEFAULT_ALLOWED_CHARS);
+
+    /**
+     * {@code mAllowed[c]} is {@code true} if {@code c} is allowed. Characters beyond the length of the table are not allowed.
+     */
+    private final boolean[] mAllowed;
+
+    /**
+     * Creates a new instance allowing the given characters.
+     *
+     * @param allowedChars The allowed characters (for instance {@link #DEFAULT_ALLOWED_CHARS} followed by additional characters).
+     */
+    public FileNameSanitizer(CharSequence allowedChars) {
+        int len = allowedChars.length();
+        char max = 0;
+        for (int i = 0; i < len; i++) {
+            max = (char) Math.max(max, allowedChars.charAt(i));
+        }
+        mAllowed = new boolean[max + 1];
+        for (int i = 0; i < len; i++) {
+            mAllowed[allowedChars.charAt(i)] = true;
+        }
+    }
+
+    /**
+     * Returns {@code true} if the given character is allowed.
+     */
+    public boolean isAllowed(char c) {
+        return c < mAllowed.length && mAllowed[c];
+    }
+
+    /**
+     * Replaces the characters which are not allowed with the given replacement character, or with nothing if {@code null} is given.<br/>
+     * If all the characters are allowed, {@code originalName} itself is returned, without allocating anything.
+     *
+     * @param originalName The original name.
+     * @param replacementChar The replacement character to use or {@code null} to just strip the characters which are not allowed.
+     * @return A string equal to {@code originalName} with the characters which are not allowed stripped or replaced.
+     */
+    public String sanitize(String originalName, Character replacementChar) {
+        int len = originalName.length();
+        int firstInvalid = 0;
+        while (firstInvalid < len && isAllowed(originalName.charAt(firstInvalid))) {
+            firstInvalid++;
+        }
+        if (firstInvalid == len) return originalName;
+
+        boolean replace = replacementChar != null;
+        char replacement = replace ? replacementChar : 0;
+        StringBuilder res = new StringBuilder(len);
+        res.append(originalName, 0, firstInvalid);
+        for (int i = firstInvalid; i < len; i++) {
+            char c = originalName.charAt(i);
+            if (isAllowed(c)) {
+                res.append(c);
+            } else if (replace) {
+                res.append(replacement);
+            }
+        }
+        return res.toString();
+    }
+}
@@ -28,22 +28,65 @@ import java.io.FileFilter;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.os.Build;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.system.StructStat;
 import android.util.Log;
 
 import org.jraf.android.util.Constants;
+import org.jraf.android.util.collection.LongArrayList;
 import org.jraf.android.util.environment.EnvironmentUtil;
 import org.jraf.android.util.io.IoUtil;
+import org.jraf.android.util.pool.BufferPool;
 
 public class FileUtil {
     private static final String TAG = Constants.TAG + FileUtil.class.getSimpleName();
 
+    /**
+     * Default maximum number of bytes transferred in one call by {@link #copy(File, File)}.
+     */
+    public static final long DEFAULT_COPY_CHUNK_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * Files up to this size are copied in batches by {@link #copyDirectory(File, File, int, CopyProgressListener)}.
+     */
+    public static final long SMALL_FILE_SIZE = 256 * 1024;
+
+    private static final long SMALL_FILE_BATCH_SIZE = 2 * 1024 * 1024;
+    private static final int SMALL_FILE_BATCH_COUNT = 64;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
     /**
      * Creates an empty temporary file using the given base name and suffix as part of the file name.<br/>
-     * If {@code suffix} is {@code null}, {@code ".tmp"} is used.
+     * If {@code suffix} is {@code null}, {@code ".tmp"} is used.<br/>
+     * The caller is responsible for deleting the file: consider using a {@link TempFileManager} instead.
      *
      * @param baseName The base name to use (must not be {@code null}).
      * @param suffix The suffix to use (can be {@code null}).
@@ -58,8 +101,6 @@ public class FileUtil {
         if (res.exists()) res.delete();
         try {
             res.createNewFile();
-            // This may very well be useless
-            res.deleteOnExit();
             Log.d(TAG, "newTemporaryFile res=" + res);
             return res;
         } catch (IOException e) {
@@ -83,32 +124,15 @@ public class FileUtil {
     /**
      * Get a string suitable to be used as a file name.<br/>
      * This will replace characters that cannot be used in a file name (for instance '/' or '='), with the given replacement character, or with nothing if
-     * {@code null} is given.
+     * {@code null} is given.<br/>
+     * The allowed characters are {@link FileNameSanitizer#DEFAULT_ALLOWED_CHARS}: use a {@link FileNameSanitizer} to allow other characters.
      *
      * @param originalName The original name.
      * @param replacementChar The replacement character to use or {@code null} to just strip the bad characters.
-     * @return A new string equal to {@code originalName} with the bad characters stripped or replaced.
+     * @return A string equal to {@code originalName} with the bad characters stripped or replaced.
      */
     public static String getValidFileName(String originalName, Character replacementChar) {
-        int len = originalName.length();
-        StringBuilder res = new StringBuilder(len);
-        for (int i = 0; i < len; i++) {
-            char c = originalName.charAt(i);
-            if (c == ' ' || c == '-' || c == '_' || c == '.' || c == ',' || c == '(' || c == ')') {
-                res.append(c);
-            } else if (c == '\u00E9' || c == '\u00E0' || c == '\u00E9' || c == '\u00E7' || c == '\u00F4' || c == '\u00EE') {
-                res.append(c);
-            } else if ('0' <= c && c <= '9') {
-                res.append(c);
-            } else if ('a' <= c && c <= 'z') {
-                res.append(c);
-            } else if ('A' <= c && c <= 'Z') {
-                res.append(c);
-            } else if (replacementChar != null) {
-                res.append(replacementChar.charValue());
-            }
-        }
-        return res.toString();
+        return FileNameSanitizer.DEFAULT.sanitize(originalName, replacementChar);
     }
 
     /**
@@ -134,31 +158,92 @@ public class FileUtil {
         }
     }
 
+    /**
+     * Result of a recursive deletion.
+     */
+    public static class DeleteResult {
+        /**
+         * Number of files deleted.
+         */
+        public final int deletedFileCount;
+
+        /**
+         * Number of directories deleted.
+         */
+        public final int deletedDirectoryCount;
+
+        /**
+         * Sum of the sizes of the deleted files, in bytes.
+         */
+        public final long freedBytes;
+
+        /**
+         * Number of files or directories that could not be deleted or listed.
+         */
+        public final int failedCount;
+
+        private DeleteResult(int deletedFileCount, int deletedDirectoryCount, long freedBytes, int failedCount) {
+            this.deletedFileCount = deletedFileCount;
+            this.deletedDirectoryCount = deletedDirectoryCount;
+            this.freedBytes = freedBytes;
+            this.failedCount = failedCount;
+        }
+
+        @Override
+        public String toString() {
+            return "DeleteResult{deletedFileCount=" + deletedFileCount + ", deletedDirectoryCount=" + deletedDirectoryCount + ", freedBytes=" + freedBytes
+                    + ", failedCount=" + failedCount + '}';
+        }
+    }
+
     /**
      * Recursively delete a file or directory.<br/>
      * An optional {@link FileFilter} can be given to choose to delete only certain files ({@link FileFilter#accept(File)} returning {@code true} means the file
      * should be deleted).<br/>
      * If a filter is given, it will only be used on files, not directories and because of that, directories will not be deleted. If {@code null} is given, then
-     * files <strong>and</strong> directories are deleted.
+     * files <strong>and</strong> directories are deleted.<br/>
+     * Symbolic links are deleted (or filtered) like files: the files they point to are never deleted.<br/>
+     * The tree is walked without recursion (its depth does not matter). On API level 21+, if {@code parallelism} is greater than 1, the directories to list and
+     * the batches of files to delete are spread over a work-stealing {@link ForkJoinPool} of {@code parallelism} threads, otherwise they are handled by the
+     * calling thread. A directory is deleted as soon as all its contents have been deleted.<br/>
+     * If the calling thread is interrupted, the pending work is abandoned (the interrupted status is kept).
      *
      * @param fileOrDirectory The file or directory to delete.
      * @param criteria The criteria to use to choose to delete only certain files, or {@code null} to delete all of them.
+     * @param parallelism The number of threads deleting files (must be > 0).
+     * @return The number of files and directories deleted and bytes freed.
+     * @throws IllegalArgumentException If {@code parallelism} is less than or equal to zero.
      */
-    public static void deleteRecursively(File fileOrDirectory, FileFilter criteria) {
-        if (fileOrDirectory.isDirectory()) {
-            for (File child : fileOrDirectory.listFiles()) {
-                deleteRecursively(child, criteria);
-            }
-            if (criteria == null) {
-                boolean ok = fileOrDirectory.delete();
-                Log.d(TAG, "deleted directory " + fileOrDirectory + (ok ? " ok" : " NOT ok"));
-            }
-        } else {
-            if (criteria == null || criteria.accept(fileOrDirectory)) {
-                boolean ok = fileOrDirectory.delete();
-                Log.d(TAG, "deleted file " + fileOrDirectory + (ok ? " ok" : " NOT ok"));
+    public static DeleteResult deleteRecursively(File fileOrDirectory, FileFilter criteria, int parallelism) {
+        if (parallelism <= 0) throw new IllegalArgumentException("parallelism must be > 0");
+        long start = System.currentTimeMillis();
+        DeleteState state = new DeleteState(criteria);
+        FileInfo info = FileInfo.of(fileOrDirectory);
+        if (info.mIsDirectory) {
+            DeleteDirectory root = new DeleteDirectory(fileOrDirectory, null);
+            if (parallelism > 1 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                state.runParallel(root, parallelism);
+            } else {
+                state.runSequential(root);
             }
+        } else if (info.mExists) {
+            state.deleteFile(fileOrDirectory, info.mLength);
         }
+        DeleteResult res = state.getResult();
+        Log.d(TAG, "deleteRecursively fileOrDirectory=" + fileOrDirectory + " res=" + res + " in " + (System.currentTimeMillis() - start) + "ms");
+        return res;
+    }
+
+    /**
+     * Recursively delete a file or directory, using only the calling thread.<br/>
+     * Equivalent of calling {@code deleteRecursively(fileOrDirectory, criteria, 1)}.
+     *
+     * @param fileOrDirectory The file or directory to delete.
+     * @param criteria The criteria to use to choose to delete only certain files, or {@code null} to delete all of them.
+     * @see #deleteRecursively(File, FileFilter, int)
+     */
+    public static void deleteRecursively(File fileOrDirectory, FileFilter criteria) {
+        deleteRecursively(fileOrDirectory, criteria, 1);
     }
 
     /**
@@ -170,6 +255,271 @@ public class FileUtil {
         deleteRecursively(fileOrDirectory, null);
     }
 
+    /**
+     * What a single {@code lstat} tells about a file: on API level 21+, its type and length are read at once, without following symbolic links.<br/>
+     * On previous levels, {@link File} methods are used, and only symbolic links to directories are detected (by comparing canonical paths).
+     */
+    private static class FileInfo {
+        private final boolean mExists;
+        // A directory, not a symbolic link to one
+        private final boolean mIsDirectory;
+        private final boolean mIsLink;
+        // The length of the file, or of the link itself
+        private final long mLength;
+
+        private FileInfo(boolean exists, boolean isDirectory, boolean isLink, long length) {
+            mExists = exists;
+            mIsDirectory = isDirectory;
+            mIsLink = isLink;
+            mLength = length;
+        }
+
+        private static FileInfo of(File file) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                FileInfo res = ofLollipop(file);
+                if (res != null) return res;
+            }
+            if (file.isDirectory()) {
+                boolean isLink = isLinkToDirectory(file);
+                return new FileInfo(true, !isLink, isLink, 0);
+            }
+            return new FileInfo(file.exists(), false, false, file.length());
+        }
+
+        @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+        private static FileInfo ofLollipop(File file) {
+            try {
+                StructStat stat = Os.lstat(file.getPath());
+                return new FileInfo(true, OsConstants.S_ISDIR(stat.st_mode), OsConstants.S_ISLNK(stat.st_mode), stat.st_size);
+            } catch (ErrnoException e) {
+                if (e.errno == OsConstants.ENOENT) return new FileInfo(false, false, false, 0);
+                return null;
+            }
+        }
+
+        private static boolean isLinkToDirectory(File directory) {
+            try {
+                File parent = directory.getAbsoluteFile().getParentFile();
+                if (parent == null) return false;
+                // Resolve the links of the parent only, then see if the directory itself resolves to somewhere else
+                File unresolved = new File(parent.getCanonicalFile(), directory.getName());
+                return !unresolved.getCanonicalFile().equals(unresolved);
+            } catch (IOException e) {
+                Log.w(TAG, "isLinkToDirectory Could not resolve " + directory, e);
+                // Don't follow it
+                return true;
+            }
+        }
+    }
+
+    /**
+     * A directory being deleted, which can be deleted when its pending count drops to 0.<br/>
+     * Its listing counts as one pending work, and each of its sub directories and batches of files adds one.
+     */
+    private static class DeleteDirectory {
+        private final File mDirectory;
+        private final DeleteDirectory mParent;
+        private final AtomicInteger mPendingCount = new AtomicInteger(1);
+
+        private DeleteDirectory(File directory, DeleteDirectory parent) {
+            mDirectory = directory;
+            mParent = parent;
+        }
+    }
+
+    /**
+     * A directory to list, or a batch of files to delete.
+     */
+    private static class DeleteWork {
+        private final DeleteDirectory mDirectory;
+        private final File[] mFiles;
+        private final long[] mLengths;
+        private final int mFrom;
+        private final int mTo;
+
+        private DeleteWork(DeleteDirectory directory, File[] files, long[] lengths, int from, int to) {
+            mDirectory = directory;
+            mFiles = files;
+            mLengths = lengths;
+            mFrom = from;
+            mTo = to;
+        }
+    }
+
+    /**
+     * Runs a {@link DeleteWork} in a {@link ForkJoinPool}.<br/>
+     * The tasks are forked and never joined, so that the stack does not grow with the depth of the tree: completion is tracked by the pending counts.
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static class DeleteAction extends RecursiveAction {
+        private final DeleteState mState;
+        private final DeleteWork mWork;
+
+        private DeleteAction(DeleteState state, DeleteWork work) {
+            mState = state;
+            mWork = work;
+        }
+
+        @Override
+        protected void compute() {
+            mState.run(mWork);
+        }
+    }
+
+    /**
+     * State shared by the threads of a recursive deletion.
+     */
+    private static class DeleteState {
+        private static final int FILE_BATCH_SIZE = 256;
+
+        private final FileFilter mCriteria;
+        private final AtomicInteger mDeletedFileCount = new AtomicInteger();
+        private final AtomicInteger mDeletedDirectoryCount = new AtomicInteger();
+        private final AtomicLong mFreedBytes = new AtomicLong();
+        private final AtomicInteger mFailedCount = new AtomicInteger();
+        private volatile boolean mCancelled;
+
+        // Sequential mode only
+        private ArrayDeque<DeleteWork> mSequentialQueue;
+
+        // Parallel mode only
+        private final CountDownLatch mDoneLatch = new CountDownLatch(1);
+        private final AtomicReference<RuntimeException> mFailure = new AtomicReference<>();
+
+        private DeleteState(FileFilter criteria) {
+            mCriteria = criteria;
+        }
+
+        private void runSequential(DeleteDirectory root) {
+            mSequentialQueue = new ArrayDeque<>();
+            mSequentialQueue.push(new DeleteWork(root, null, null, 0, 0));
+            while (!mSequentialQueue.isEmpty()) {
+                if (Thread.currentThread().isInterrupted()) mCancelled = true;
+                run(mSequentialQueue.pop());
+            }
+        }
+
+        @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+        private void runParallel(DeleteDirectory root, int parallelism) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                pool.execute(new DeleteAction(this, new DeleteWork(root, null, null, 0, 0)));
+                boolean interrupted = false;
+                while (true) {
+                    try {
+                        mDoneLatch.await();
+                        break;
+                    } catch (InterruptedException e) {
+                        // Let the workers drain the remaining work without doing it
+                        mCancelled = true;
+                        interrupted = true;
+                    }
+                }
+                if (interrupted) Thread.currentThread().interrupt();
+            } finally {
+                pool.shutdown();
+            }
+            RuntimeException failure = mFailure.get();
+            if (failure != null) throw failure;
+        }
+
+        private void submit(DeleteWork work) {
+            if (mSequentialQueue != null) {
+                mSequentialQueue.push(work);
+            } else {
+                submitParallel(work);
+            }
+        }
+
+        @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+        private void submitParallel(DeleteWork work) {
+            // Pushed to the deque of the current worker, where idle workers can steal it
+            new DeleteAction(this, work).fork();
+        }
+
+        private void run(DeleteWork work) {
+            try {
+                if (!mCancelled) {
+                    if (work.mFiles == null) {
+                        list(work.mDirectory);
+                    } else {
+                        for (int i = work.mFrom; i < work.mTo; i++) {
+                            deleteFile(work.mFiles[i], work.mLengths[i]);
+                        }
+                    }
+                }
+            } catch (RuntimeException e) {
+                // Keep going so that the pending counts drop to 0, but don't do anything else
+                if (mSequentialQueue != null) throw e;
+                mFailure.compareAndSet(null, e);
+                mCancelled = true;
+            } finally {
+                complete(work.mDirectory);
+            }
+        }
+
+        private void list(DeleteDirectory directory) {
+            File[] children = directory.mDirectory.listFiles();
+            if (children == null) {
+                Log.w(TAG, "deleteRecursively Could not list " + directory.mDirectory);
+                mFailedCount.incrementAndGet();
+                return;
+            }
+            // Move the files to the beginning of the array, with their lengths, and submit the sub directories
+            long[] lengths = new long[children.length];
+            int fileCount = 0;
+            // Incremented before submitting, so that the count never drops to 0 while work remains
+            for (File child : children) {
+                FileInfo info = FileInfo.of(child);
+                if (info.mIsDirectory) {
+                    directory.mPendingCount.incrementAndGet();
+                    submit(new DeleteWork(new DeleteDirectory(child, directory), null, null, 0, 0));
+                } else {
+                    lengths[fileCount] = info.mLength;
+                    children[fileCount++] = child;
+                }
+            }
+            for (int from = 0; from < fileCount; from += FILE_BATCH_SIZE) {
+                directory.mPendingCount.incrementAndGet();
+                submit(new DeleteWork(directory, children, lengths, from, Math.min(from + FILE_BATCH_SIZE, fileCount)));
+            }
+        }
+
+        private void deleteFile(File file, long length) {
+            if (mCriteria != null && !mCriteria.accept(file)) return;
+            if (file.delete()) {
+                mDeletedFileCount.incrementAndGet();
+                mFreedBytes.addAndGet(length);
+            } else {
+                mFailedCount.incrementAndGet();
+            }
+        }
+
+        /**
+         * Decrements the pending count of the given directory, deleting it (and its parents, in turn) when it drops to 0.
+         */
+        private void complete(DeleteDirectory directory) {
+            while (directory.mPendingCount.decrementAndGet() == 0) {
+                if (mCriteria == null && !mCancelled) {
+                    if (directory.mDirectory.delete()) {
+                        mDeletedDirectoryCount.incrementAndGet();
+                    } else {
+                        mFailedCount.incrementAndGet();
+                    }
+                }
+                directory = directory.mParent;
+                if (directory == null) {
+                    mDoneLatch.countDown();
+                    return;
+                }
+            }
+        }
+
+        private DeleteResult getResult() {
+            return new DeleteResult(mDeletedFileCount.get(), mDeletedDirectoryCount.get(), mFreedBytes.get(), mFailedCount.get());
+        }
+    }
+
     /**
      * Copy a file.
      *
@@ -182,16 +532,318 @@ public class FileUtil {
     }
 
     /**
-     * Copy a file.
+     * Copy a file.<br/>
+     * Equivalent of calling {@code copy(from, to, DEFAULT_COPY_CHUNK_SIZE, false, false)}.
      *
      * @param from The source file to copy.
      * @param to The destination file (must be a file, not a directory).
      * @throws IOException If an error occurs while reading or writing.
      */
     public static void copy(File from, File to) throws IOException {
-        FileChannel in = new FileInputStream(from).getChannel();
-        FileChannel out = new FileOutputStream(to).getChannel();
-        in.transferTo(0, in.size(), out);
-        IoUtil.closeSilently(in, out);
+        copy(from, to, DEFAULT_COPY_CHUNK_SIZE, false, false);
+    }
+
+    /**
+     * Copy a file.<br/>
+     * The contents are transferred in chunks of at most {@code chunkSize} bytes using {@link FileChannel#transferTo(long, long, WritableByteChannel)},
+     * looping until the whole file has been copied (a single call to {@code transferTo} may transfer fewer bytes than requested).<br/>
+     * If the channels cannot be used for a direct transfer (for instance on some FUSE backed storages), the remaining bytes are copied through a pooled
+     * buffer instead.
+     *
+     * @param from The source file to copy.
+     * @param to The destination file (must be a file, not a directory).
+     * @param chunkSize The maximum number of bytes to transfer in one call (must be > 0).
+     * @param sync {@code true} to flush the contents of the destination file to the storage device before returning.
+     * @param preserveLastModified {@code true} to set the last modified time of the destination file to the one of the source file.
+     * @return The number of bytes copied.
+     * @throws IOException If an error occurs while reading or writing, or if fewer bytes than the size of the source file could be copied.
+     * @throws IllegalArgumentException If {@code chunkSize} is less than or equal to zero.
+     */
+    public static long copy(File from, File to, long chunkSize, boolean sync, boolean preserveLastModified) throws IOException {
+        if (chunkSize <= 0) throw new IllegalArgumentException("chunkSize must be > 0");
+        FileInputStream inputStream = null;
+        FileOutputStream outputStream = null;
+        long position;
+        long size;
+        try {
+            inputStream = new FileInputStream(from);
+            outputStream = new FileOutputStream(to);
+            FileChannel in = inputStream.getChannel();
+            FileChannel out = outputStream.getChannel();
+            size = in.size();
+            position = transfer(in, out, 0, size, chunkSize);
+            if (position < size) {
+                Log.d(TAG, "copy transferTo stopped at " + position + "/" + size + ", using a buffer for the remaining bytes");
+                position = bufferCopy(in, out, position);
+            }
+            if (sync) out.force(true);
+        } finally {
+            IoUtil.closeSilently(inputStream, outputStream);
+        }
+        if (position != size) throw new IOException("Copied " + position + " bytes from " + from + " but expected " + size);
+        if (preserveLastModified && !to.setLastModified(from.lastModified())) Log.w(TAG, "copy Could not set last modified time of " + to);
+        return position;
+    }
+
+    /**
+     * Transfer bytes from {@code in} to {@code out} until {@code size} is reached, the channels stop making progress, or the transfer fails.
+     *
+     * @return The position reached.
+     */
+    private static long transfer(FileChannel in, FileChannel out, long position, long size, long chunkSize) {
+        try {
+            while (position < size) {
+                long transferred = in.transferTo(position, Math.min(chunkSize, size - position), out);
+                if (transferred <= 0) break;
+                position += transferred;
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "transfer Could not transfer using channels", e);
+        }
+        return position;
+    }
+
+    /**
+     * Copy bytes from {@code in} to {@code out}, starting at {@code position}, through a pooled buffer.<br/>
+     * Both channels are positioned at {@code position} before copying.
+     *
+     * @return The position reached (i.e. the end of {@code in}).
+     */
+    private static long bufferCopy(FileChannel in, FileChannel out, long position) throws IOException {
+        in.position(position);
+        out.position(position);
+        ByteBuffer buffer = BufferPool.getDefault().acquireDirect(COPY_BUFFER_SIZE);
+        try {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                buffer.clear();
+                position += read;
+            }
+        } finally {
+            BufferPool.getDefault().releaseDirect(buffer);
+        }
+        return position;
+    }
+
+    /**
+     * Listener notified of the progress of {@link #copyDirectory(File, File, int, CopyProgressListener)}.
+     */
+    public interface CopyProgressListener {
+        /**
+         * Called each time a file has been copied.<br/>
+         * Note: this is called from the copying threads, possibly concurrently.
+         *
+         * @param copiedFileCount The number of files copied so far.
+         * @param totalFileCount The total number of files to copy.
+         * @param copiedBytes The number of bytes copied so far.
+         * @param totalBytes The total number of bytes to copy.
+         */
+        void onProgress(int copiedFileCount, int totalFileCount, long copiedBytes, long totalBytes);
+    }
+
+    /**
+     * Recursively copy a directory.<br/>
+     * The tree is walked first to create the destination directories, then the files are copied by a pool of {@code parallelism} threads. Files larger than
+     * {@link #SMALL_FILE_SIZE} are copied individually using {@link #copy(File, File)}, while smaller files are grouped in batches copied through a single
+     * buffer.<br/>
+     * Symbolic links to files are copied as regular files. Symbolic links to directories are skipped, so that a link cycle cannot make the walk endless.<br/>
+     * If a file cannot be copied, the remaining copies are cancelled as soon as the failure happens.
+     *
+     * @param fromDirectory The source directory to copy.
+     * @param toDirectory The destination directory (created if needed).
+     * @param parallelism The maximum number of files to copy at the same time (must be > 0).
+     * @param listener A listener to notify of the progress (can be {@code null}).
+     * @return The number of bytes copied.
+     * @throws IOException If the source is not a directory, or an error occurs while reading or writing.
+     * @throws IllegalArgumentException If {@code parallelism} is less than or equal to zero, or if {@code toDirectory} is {@code fromDirectory} or inside it.
+     */
+    public static long copyDirectory(File fromDirectory, File toDirectory, int parallelism, CopyProgressListener listener) throws IOException {
+        if (parallelism <= 0) throw new IllegalArgumentException("parallelism must be > 0");
+        if (!fromDirectory.isDirectory()) throw new IOException(fromDirectory + " is not a directory");
+        // Otherwise the walk would keep finding the directories it creates
+        String fromPath = fromDirectory.getCanonicalPath() + File.separator;
+        String toPath = toDirectory.getCanonicalPath() + File.separator;
+        if (toPath.startsWith(fromPath)) throw new IllegalArgumentException(toDirectory + " is inside " + fromDirectory);
+
+        // Walk the tree: create the directories and list the files to copy
+        List<File> fromFiles = new ArrayList<File>();
+        List<File> toFiles = new ArrayList<File>();
+        LongArrayList lengths = new LongArrayList();
+        long totalBytes = 0;
+        ArrayDeque<File[]> directories = new ArrayDeque<File[]>();
+        directories.add(new File[] {fromDirectory, toDirectory});
+        while (!directories.isEmpty()) {
+            File[] directory = directories.poll();
+            if (!directory[1].isDirectory() && !directory[1].mkdirs()) throw new IOException("Could not create directory " + directory[1]);
+            File[] children = directory[0].listFiles();
+            if (children == null) throw new IOException("Could not list directory " + directory[0]);
+            for (File child : children) {
+                File to = new File(directory[1], child.getName());
+                FileInfo info = FileInfo.of(child);
+                if (info.mIsDirectory) {
+                    directories.add(new File[] {child, to});
+                    continue;
+                }
+                long length = info.mLength;
+                if (info.mIsLink) {
+                    if (child.isDirectory()) {
+                        Log.w(TAG, "copyDirectory Skipping " + child + ", a link to a directory");
+                        continue;
+                    }
+                    // The length of the file the link points to
+                    length = child.length();
+                }
+                fromFiles.add(child);
+                toFiles.add(to);
+                lengths.add(length);
+                totalBytes += length;
+            }
+        }
+        Log.d(TAG, "copyDirectory fromDirectory=" + fromDirectory + " files=" + fromFiles.size() + " bytes=" + totalBytes);
+
+        // Split the files into tasks: one per big file, batches of small files
+        CopyProgress progress = new CopyProgress(fromFiles.size(), totalBytes, listener);
+        List<CopyTask> tasks = new ArrayList<CopyTask>();
+        CopyTask batch = null;
+        for (int i = 0; i < fromFiles.size(); i++) {
+            File from = fromFiles.get(i);
+            long length = lengths.get(i);
+            if (length > SMALL_FILE_SIZE) {
+                CopyTask task = new CopyTask(progress);
+                task.add(from, toFiles.get(i), length);
+                tasks.add(task);
+                continue;
+            }
+            if (batch == null || batch.mBytes >= SMALL_FILE_BATCH_SIZE || batch.mFromFiles.size() >= SMALL_FILE_BATCH_COUNT) {
+                batch = new CopyTask(progress);
+                tasks.add(batch);
+            }
+            batch.add(from, toFiles.get(i), length);
+        }
+
+        ExecutorService executorService = Executors.newFixedThreadPool(Math.min(parallelism, Math.max(tasks.size(), 1)));
+        // Tasks are awaited in completion order, so that a failure is seen (and the other tasks cancelled) as soon as it happens
+        CompletionService<Void> completionService = new ExecutorCompletionService<Void>(executorService);
+        List<Future<Void>> futures = new ArrayList<Future<Void>>(tasks.size());
+        try {
+            for (CopyTask task : tasks) {
+                futures.add(completionService.submit(task));
+            }
+            for (int i = 0; i < tasks.size(); i++) {
+                completionService.take().get();
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            throw new IOException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while copying " + fromDirectory);
+        } finally {
+            for (Future<Void> future : futures) {
+                future.cancel(true);
+            }
+            executorService.shutdownNow();
+        }
+        return progress.mCopiedBytes.get();
+    }
+
+    /**
+     * Aggregated progress of a directory copy.
+     */
+    private static class CopyProgress {
+        private final int mTotalFileCount;
+        private final long mTotalBytes;
+        private final CopyProgressListener mListener;
+        private final AtomicInteger mCopiedFileCount = new AtomicInteger();
+        private final AtomicLong mCopiedBytes = new AtomicLong();
+
+        private CopyProgress(int totalFileCount, long totalBytes, CopyProgressListener listener) {
+            mTotalFileCount = totalFileCount;
+            mTotalBytes = totalBytes;
+            mListener = listener;
+        }
+
+        private void onFileCopied(long bytes) {
+            int copiedFileCount = mCopiedFileCount.incrementAndGet();
+            long copiedBytes = mCopiedBytes.addAndGet(bytes);
+            if (mListener != null) mListener.onProgress(copiedFileCount, mTotalFileCount, copiedBytes, mTotalBytes);
+        }
+    }
+
+    /**
+     * Copies either a single big file (using {@link #copy(File, File)}) or a batch of small files (through a single buffer).
+     */
+    private static class CopyTask implements Callable<Void> {
+        private final CopyProgress mProgress;
+        private final List<File> mFromFiles = new ArrayList<File>();
+        private final List<File> mToFiles = new ArrayList<File>();
+        private long mBytes;
+
+        private CopyTask(CopyProgress progress) {
+            mProgress = progress;
+        }
+
+        private void add(File from, File to, long length) {
+            mFromFiles.add(from);
+            mToFiles.add(to);
+            mBytes += length;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            if (mFromFiles.size() == 1 && mBytes > SMALL_FILE_SIZE) {
+                mProgress.onFileCopied(copy(mFromFiles.get(0), mToFiles.get(0), DEFAULT_COPY_CHUNK_SIZE, false, false));
+                return null;
+            }
+            byte[] buffer = BufferPool.getDefault().acquireBytes((int) Math.min(Math.max(mBytes, 1), COPY_BUFFER_SIZE));
+            try {
+                for (int i = 0; i < mFromFiles.size(); i++) {
+                    if (Thread.currentThread().isInterrupted()) throw new InterruptedIOException("Copy cancelled");
+                    mProgress.onFileCopied(streamCopy(mFromFiles.get(i), mToFiles.get(i), buffer));
+                }
+            } finally {
+                BufferPool.getDefault().releaseBytes(buffer);
+            }
+            return null;
+        }
+    }
+
+    private static long streamCopy(File from, File to, byte[] buffer) throws IOException {
+        FileInputStream in = null;
+        FileOutputStream out = null;
+        try {
+            in = new FileInputStream(from);
+            out = new FileOutputStream(to);
+            long res = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                res += read;
+            }
+            return res;
+        } finally {
+            IoUtil.closeSilently(in, out);
+        }
+    }
+
+    /**
+     * Returns whether the given file ends with a line feed, which is how the line-based logs of this package tell that their last line was written
+     * completely.
+     */
+    static boolean endsWithLineFeed(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            long length = randomAccessFile.length();
+            if (length == 0) return false;
+            randomAccessFile.seek(length - 1);
+            return randomAccessFile.read() == '\n';
+        } finally {
+            IoUtil.closeSilently(randomAccessFile);
+        }
     }
 }
@@ -0,0 +1,282 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.util.file;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.jraf.android.util.Constants;
+import org.jraf.android.util.io.IoUtil;
+
+/**
+ * Hands out temporary files from a directory owned by this manager, and deletes them all at once.<br/>
+ * <br/>
+ * The directory is wiped when the manager is created (removing the leftovers of a previous session, for instance if the process was killed) and when it is
+ * closed, in a single pass, so callers don't need to delete each file.<br/>
+ * Files given back with {@link #release(File)} are emptied and handed out again by later calls to {@link #acquire(String)} with the same suffix, instead of
+ * creating new files.<br/>
+ * Streams opened with {@link #openInputStream(File)} and {@link #openOutputStream(File)} are tracked until they are closed, and closed when their file is
+ * released or when the manager is closed.
+ */
+public class TempFileManager implements Closeable {
+    private static final String TAG = Constants.TAG + TempFileManager.class.getSimpleName();
+
+    private static final String DEFAULT_SUFFIX = ".tmp";
+
+    private final File mDirectory;
+    private final Map<String, ArrayDeque<File>> mFreeFiles = new HashMap<>();
+    // Same files as in mFreeFiles, to check for double releases without scanning the queues
+    private final Set<File> mFreeFileSet = new HashSet<>();
+    private final Map<File, String> mSuffixes = new HashMap<>();
+    private final Map<File, List<Closeable>> mOpenStreams = new HashMap<>();
+    private int mFileCount;
+    private boolean mClosed;
+
+    /**
+     * Creates a manager using the given directory, which is wiped.<br/>
+     * This accesses the disk and should not be called from the UI thread.
+     *
+     * @param directory A directory dedicated to this manager.
+     * @throws IOException If the directory could not be created.
+     */
+    public TempFileManager(File directory) throws IOException {
+        mDirectory = directory;
+        if (directory.exists()) {
+            FileUtil.DeleteResult deleteResult = FileUtil.deleteRecursively(directory, null, 1);
+            if (deleteResult.deletedFileCount > 0) Log.d(TAG, "Deleted " + deleteResult.deletedFileCount + " leftover files in " + directory);
+        }
+        if (!directory.mkdirs()) throw new IOException("Could not create directory " + directory);
+    }
+
+    /**
+     * Creates a manager using a directory with the given name inside the application's cache directory.
+     *
+     * @param context The context.
+     * @param name The name of the directory (managers open at the same time must use different names).
+     * @return The new manager.
+     * @throws IOException If the directory could not be created.
+     * @see #TempFileManager(File)
+     */
+    public static TempFileManager newInstance(Context context, String name) throws IOException {
+        return new TempFileManager(new File(context.getCacheDir(), name));
+    }
+
+    /**
+     * Returns an empty temporary file with the given suffix.
+     *
+     * @param suffix The suffix to use (can be {@code null}, in which case {@code ".tmp"} is used).
+     * @return An empty file, which belongs to the caller until it is released.
+     * @throws IOException If the file could not be created.
+     * @throws IllegalStateException If the manager is closed.
+     */
+    public synchronized File acquire(String suffix) throws IOException {
+        checkNotClosed();
+        if (suffix == null) suffix = DEFAULT_SUFFIX;
+        ArrayDeque<File> freeFiles = mFreeFiles.get(suffix);
+        if (freeFiles != null && !freeFiles.isEmpty()) {
+            File res = freeFiles.pop();
+            mFreeFileSet.remove(res);
+            return res;
+        }
+        File res = new File(mDirectory, (mFileCount++) + suffix);
+        if (!res.createNewFile()) throw new IOException("Could not create " + res);
+        mSuffixes.put(res, suffix);
+        return res;
+    }
+
+    /**
+     * Gives back a file obtained from {@link #acquire(String)}: its open streams are closed, and it is emptied to be handed out again.<br/>
+     * The caller must not use the file after this call. Releasing a file after the manager is closed does nothing.
+     *
+     * @param file The file to give back.
+     * @throws IllegalArgumentException If the file was not obtained from this manager.
+     * @throws IllegalStateException If the file was already released.
+     */
+    public synchronized void release(File file) {
+        // The file was deleted, and its streams closed, by close()
+        if (mClosed) return;
+        String suffix = mSuffixes.get(file);
+        if (suffix == null) throw new IllegalArgumentException(file + " was not obtained from this manager");
+        if (mFreeFileSet.contains(file)) throw new IllegalStateException(file + " was already released");
+        closeStreams(file);
+        try {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+            try {
+                randomAccessFile.setLength(0);
+            } finally {
+                IoUtil.closeSilently(randomAccessFile);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "release Could not empty " + file + ", deleting it", e);
+            file.delete();
+            mSuffixes.remove(file);
+            return;
+        }
+        ArrayDeque<File> freeFiles = mFreeFiles.get(suffix);
+        if (freeFiles == null) {
+            freeFiles = new ArrayDeque<>();
+            mFreeFiles.put(suffix, freeFiles);
+        }
+        freeFiles.push(file);
+        mFreeFileSet.add(file);
+    }
+
+    /**
+     * Opens a stream to read the given file, which will be closed when the file is released or the manager is closed, if the caller has not closed it before.
+     *
+     * @throws FileNotFoundException If the file could not be opened.
+     * @throws IllegalStateException If the manager is closed.
+     */
+    public synchronized FileInputStream openInputStream(File file) throws FileNotFoundException {
+        checkNotClosed();
+        FileInputStream res = new TrackedInputStream(file);
+        track(file, res);
+        return res;
+    }
+
+    /**
+     * Opens a stream to write the given file, which will be closed when the file is released or the manager is closed, if the caller has not closed it before.
+     *
+     * @throws FileNotFoundException If the file could not be opened.
+     * @throws IllegalStateException If the manager is closed.
+     */
+    public synchronized FileOutputStream openOutputStream(File file) throws FileNotFoundException {
+        checkNotClosed();
+        FileOutputStream res = new TrackedOutputStream(file);
+        track(file, res);
+        return res;
+    }
+
+    private void track(File file, Closeable stream) {
+        List<Closeable> streams = mOpenStreams.get(file);
+        if (streams == null) {
+            streams = new ArrayList<>(1);
+            mOpenStreams.put(file, streams);
+        }
+        streams.add(stream);
+    }
+
+    private synchronized void untrack(File file, Closeable stream) {
+        // Already untracked by release() or close()
+        if (mClosed) return;
+        List<Closeable> streams = mOpenStreams.get(file);
+        if (streams == null) return;
+        streams.remove(stream);
+        if (streams.isEmpty()) mOpenStreams.remove(file);
+    }
+
+    private void closeStreams(File file) {
+        List<Closeable> streams = mOpenStreams.remove(file);
+        if (streams == null) return;
+        IoUtil.closeSilently(streams.toArray(new Closeable[streams.size()]));
+    }
+
+    /**
+     * A {@link FileInputStream} which stops being tracked when the caller closes it, so that opening streams repeatedly on a file held for a long time does not
+     * accumulate closed streams.
+     */
+    private class TrackedInputStream extends FileInputStream {
+        private final File mFile;
+
+        private TrackedInputStream(File file) throws FileNotFoundException {
+            super(file);
+            mFile = file;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                untrack(mFile, this);
+            }
+        }
+    }
+
+    /**
+     * A {@link FileOutputStream} which stops being tracked when the caller closes it.
+     */
+    private class TrackedOutputStream extends FileOutputStream {
+        private final File mFile;
+
+        private TrackedOutputStream(File file) throws FileNotFoundException {
+            super(file);
+            mFile = file;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                untrack(mFile, this);
+            }
+        }
+    }
+
+    private void checkNotClosed() {
+        if (mClosed) throw new IllegalStateException("The manager is closed");
+    }
+
+    /**
+     * Returns the directory of this manager.
+     */
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    /**
+     * Closes all the tracked streams and deletes the directory with all the files.<br/>
+     * This accesses the disk and should not be called from the UI thread.
+     */
+    @Override
+    public synchronized void close() {
+        if (mClosed) return;
+        mClosed = true;
+        for (List<Closeable> streams : mOpenStreams.values()) {
+            IoUtil.closeSilently(streams.toArray(new Closeable[streams.size()]));
+        }
+        mOpenStreams.clear();
+        mFreeFiles.clear();
+        mFreeFileSet.clear();
+        mSuffixes.clear();
+        FileUtil.DeleteResult deleteResult = FileUtil.deleteRecursively(mDirectory, null, 1);
+        Log.d(TAG, "close directory=" + mDirectory + " " + deleteResult);
+    }
+}
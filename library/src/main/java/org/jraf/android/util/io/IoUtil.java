@@ -27,9 +27,17 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.security.MessageDigest;
+
+import org.jraf.android.util.pool.BufferPool;
 
 public class IoUtil {
     private static final int BUFFER_SIZE = 1448;
+    /**
+     * Size of the buffer used by the {@code copy} methods: big enough to need few reads and writes on files (the buffer is pooled, so its size doesn't
+     * matter for allocations).
+     */
+    private static final int COPY_BUFFER_SIZE = 8 * 1024;
 
     /**
      * Silently close the given {@link Closeable}s, ignoring any {@link IOException}.<br/> {@code null} objects are ignored.
@@ -59,13 +67,45 @@ public class IoUtil {
      */
     public static long copy(InputStream in, OutputStream out) throws IOException {
         long res = 0;
-        byte[] buffer = new byte[BUFFER_SIZE];
-        int read;
-        while ((read = in.read(buffer)) != -1) {
-            out.write(buffer, 0, read);
-            out.flush();
-            res += read;
+        byte[] buffer = BufferPool.getDefault().acquireBytes(COPY_BUFFER_SIZE);
+        try {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                out.flush();
+                res += read;
+            }
+        } finally {
+            BufferPool.getDefault().releaseBytes(buffer);
+        }
+        return res;
+    }
+
+    /**
+     * Copy the contents of the given {@link InputStream} into the given {@link OutputStream}, updating the given {@link MessageDigest} with the copied
+     * bytes.<br/>
+     * Note: the given {@link InputStream} and {@link OutputStream} won't be closed.
+     * 
+     * @param in The {@link InputStream} to read.
+     * @param out The {@link OutputStream} to write to.
+     * @param digest The {@link MessageDigest} to update.
+     * @return the actual number of bytes that were read.
+     * @throws IOException If a error occurs while reading or writing.
+     */
+    public static long copy(InputStream in, OutputStream out, MessageDigest digest) throws IOException {
+        long res = 0;
+        byte[] buffer = BufferPool.getDefault().acquireBytes(COPY_BUFFER_SIZE);
+        try {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+                out.write(buffer, 0, read);
+                res += read;
+            }
+        } finally {
+            BufferPool.getDefault().releaseBytes(buffer);
         }
+        out.flush();
         return res;
     }
 
@@ -79,13 +119,14 @@ public class IoUtil {
      * @throws IOException If a error occurs while reading.
      */
     public static String readFully(InputStream in) throws IOException {
-        StringBuilder stringBuilder = new StringBuilder();
-        byte[] buffer = new byte[BUFFER_SIZE];
-        int read;
-        while ((read = in.read(buffer)) != -1) {
-            stringBuilder.append(new String(buffer, 0, read, "utf-8"));
+        // Decode all the bytes at once, since a character can be split between 2 reads
+        PooledByteArrayOutputStream out = new PooledByteArrayOutputStream(BUFFER_SIZE);
+        try {
+            copy(in, out);
+            return out.toString("utf-8");
+        } finally {
+            out.release();
         }
-        return stringBuilder.toString();
     }
 
 }
@@ -0,0 +1,75 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.util.io;
+
+import java.io.ByteArrayOutputStream;
+
+import org.jraf.android.util.pool.BufferPool;
+
+/**
+ * A {@link ByteArrayOutputStream} whose internal array is taken from the {@link BufferPool#getDefault() default buffer pool}, and grown with arrays of the
+ * pool.<br/>
+ * {@link #release()} must be called when the stream is not used anymore, to give the array back.
+ */
+public class PooledByteArrayOutputStream extends ByteArrayOutputStream {
+    private final BufferPool mBufferPool = BufferPool.getDefault();
+
+    public PooledByteArrayOutputStream(int initialSize) {
+        super(0);
+        buf = mBufferPool.acquireBytes(initialSize);
+    }
+
+    private void ensureCapacity(int minCapacity) {
+        if (minCapacity <= buf.length) return;
+        byte[] newBuf = mBufferPool.acquireBytes(Math.max(minCapacity, buf.length * 2));
+        System.arraycopy(buf, 0, newBuf, 0, count);
+        mBufferPool.releaseBytes(buf);
+        buf = newBuf;
+    }
+
+    @Override
+    public synchronized void write(int b) {
+        ensureCapacity(count + 1);
+        buf[count] = (byte) b;
+        count++;
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+        if (off < 0 || len < 0 || off + len > b.length) throw new IndexOutOfBoundsException();
+        ensureCapacity(count + len);
+        System.arraycopy(b, off, buf, count, len);
+        count += len;
+    }
+
+    /**
+     * Gives the internal array back to the pool. The stream must not be used after this call.
+     */
+    public synchronized void release() {
+        if (buf.length == 0) return;
+        mBufferPool.releaseBytes(buf);
+        buf = new byte[0];
+        count = 0;
+    }
+}
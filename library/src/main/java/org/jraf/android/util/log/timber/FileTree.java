@@ -24,8 +24,6 @@
 
 package org.jraf.android.util.log.timber;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
@@ -186,13 +184,14 @@ public class FileTree extends TagAndMethodNameTree {
         mFile = new File(mContext.getExternalFilesDir(null), fileName);
 
         android.util.Log.d("Log", "Preparing log file...");
-        BufferedInputStream in0 = null;
-        BufferedInputStream in1 = null;
-        BufferedOutputStream out = null;
+        // No buffered streams: IoUtil.copy already reads and writes by chunks, with a pooled buffer
+        FileInputStream in0 = null;
+        FileInputStream in1 = null;
+        FileOutputStream out = null;
         try {
-            if (mFile0.exists()) in0 = new BufferedInputStream(new FileInputStream(mFile0));
-            if (mFile1.exists()) in1 = new BufferedInputStream(new FileInputStream(mFile1));
-            out = new BufferedOutputStream(new FileOutputStream(mFile, false));
+            if (mFile0.exists()) in0 = new FileInputStream(mFile0);
+            if (mFile1.exists()) in1 = new FileInputStream(mFile1);
+            out = new FileOutputStream(mFile, false);
 
             out.write(getHeader().getBytes("utf-8"));
 
@@ -0,0 +1,161 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.util.pool;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of {@code byte[]} and direct {@link ByteBuffer}s, so that I/O helpers don't allocate a new buffer for each call.<br/>
+ * <br/>
+ * Buffers are grouped by size classes: powers of two from {@link #MIN_SIZE} to {@link #MAX_SIZE}. A request is served with a buffer of the smallest class
+ * big enough, so the returned buffer can be bigger than requested. Each class keeps a limited number of buffers (fewer for the big classes), in a
+ * lock-free {@link Pools.ConcurrentPool}. Requests bigger than {@link #MAX_SIZE} are allocated and never pooled.<br/>
+ * The {@link #getDefault() default pool} adds itself to the {@link MemoryPressureRegistry}.<br/>
+ * This class is thread safe.
+ */
+public class BufferPool implements Trimmable {
+    public static final int MIN_SIZE = 512;
+    public static final int MAX_SIZE = 1024 * 1024;
+
+    private static final int MIN_SIZE_SHIFT = 9;
+    private static final int CLASS_COUNT = 12; // 512 B to 1 MB
+    private static final int MAX_BUFFERS_PER_CLASS = 16;
+    private static final int DEFAULT_MAX_BYTES_PER_CLASS = 256 * 1024;
+
+    private static final BufferPool DEFAULT = new BufferPool(DEFAULT_MAX_BYTES_PER_CLASS);
+
+    static {
+        MemoryPressureRegistry.getInstance().add(DEFAULT);
+    }
+
+    private final Pools.ConcurrentPool<byte[]>[] mArrayPools;
+    private final Pools.ConcurrentPool<ByteBuffer>[] mDirectPools;
+    private final int[] mMaxCounts = new int[CLASS_COUNT];
+    private final AtomicLong mRetainedBytes = new AtomicLong();
+
+    /**
+     * Creates a pool keeping, for each size class, at most the given number of bytes (but always at least one buffer) of each kind.
+     */
+    @SuppressWarnings("unchecked")
+    public BufferPool(int maxBytesPerClass) {
+        mArrayPools = new Pools.ConcurrentPool[CLASS_COUNT];
+        mDirectPools = new Pools.ConcurrentPool[CLASS_COUNT];
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            int size = MIN_SIZE << i;
+            mMaxCounts[i] = Math.max(1, Math.min(MAX_BUFFERS_PER_CLASS, maxBytesPerClass / size));
+            mArrayPools[i] = new Pools.ConcurrentPool<>(mMaxCounts[i]);
+            mDirectPools[i] = new Pools.ConcurrentPool<>(mMaxCounts[i]);
+        }
+    }
+
+    /**
+     * Returns the pool shared by the helpers of this library.
+     */
+    public static BufferPool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns the index of the smallest size class containing the given size, or {@code -1} if it is bigger than {@link #MAX_SIZE}.
+     */
+    private static int getClassIndex(int size) {
+        if (size <= MIN_SIZE) return 0;
+        if (size > MAX_SIZE) return -1;
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SIZE_SHIFT;
+    }
+
+    /**
+     * Returns the index of the size class of exactly the given size, or {@code -1} if it is not a size class.
+     */
+    private static int getExactClassIndex(int size) {
+        if (Integer.bitCount(size) != 1) return -1;
+        int res = getClassIndex(size);
+        return res != -1 && (MIN_SIZE << res) == size ? res : -1;
+    }
+
+    /**
+     * Returns an array of at least the given size. Its contents are undefined.
+     */
+    public byte[] acquireBytes(int minSize) {
+        int classIndex = getClassIndex(minSize);
+        if (classIndex == -1) return new byte[minSize];
+        byte[] res = mArrayPools[classIndex].acquire();
+        if (res == null) return new byte[MIN_SIZE << classIndex];
+        mRetainedBytes.addAndGet(-res.length);
+        return res;
+    }
+
+    /**
+     * Gives back an array obtained from {@link #acquireBytes(int)}. The caller must not use it after this call.
+     */
+    public void releaseBytes(byte[] array) {
+        int classIndex = getExactClassIndex(array.length);
+        if (classIndex == -1) return;
+        if (mArrayPools[classIndex].release(array)) mRetainedBytes.addAndGet(array.length);
+    }
+
+    /**
+     * Returns a cleared direct buffer with a capacity of at least the given size. Its contents are undefined.
+     */
+    public ByteBuffer acquireDirect(int minSize) {
+        int classIndex = getClassIndex(minSize);
+        if (classIndex == -1) return ByteBuffer.allocateDirect(minSize);
+        ByteBuffer res = mDirectPools[classIndex].acquire();
+        if (res == null) return ByteBuffer.allocateDirect(MIN_SIZE << classIndex);
+        mRetainedBytes.addAndGet(-res.capacity());
+        res.clear();
+        return res;
+    }
+
+    /**
+     * Gives back a buffer obtained from {@link #acquireDirect(int)}. The caller must not use it after this call.
+     */
+    public void releaseDirect(ByteBuffer buffer) {
+        int classIndex = getExactClassIndex(buffer.capacity());
+        if (classIndex == -1 || !buffer.isDirect()) return;
+        if (mDirectPools[classIndex].release(buffer)) mRetainedBytes.addAndGet(buffer.capacity());
+    }
+
+    @Override
+    public long getRetainedBytes() {
+        return mRetainedBytes.get();
+    }
+
+    /**
+     * Drops the given fraction of the maximum number of buffers of each size class.
+     */
+    @Override
+    public void trim(float fraction) {
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            int count = (int) Math.ceil(mMaxCounts[i] * fraction);
+            for (int j = 0; j < count; j++) {
+                byte[] array = mArrayPools[i].acquire();
+                if (array != null) mRetainedBytes.addAndGet(-array.length);
+                ByteBuffer buffer = mDirectPools[i].acquire();
+                if (buffer != null) mRetainedBytes.addAndGet(-buffer.capacity());
+            }
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.util.pool;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.util.Log;
+
+import org.jraf.android.util.Constants;
+
+/**
+ * Registry of the pools and caches of the application, which trims them when the system asks the application to trim its memory, and keeps the total
+ * number of bytes they retain under a soft bound.<br/>
+ * <br/>
+ * {@link Trimmable}s are added with {@link #add(Trimmable)}, and only weakly referenced so they don't need to be removed. The pools and caches of this
+ * library ({@link org.jraf.android.util.bitmap.BitmapPool}, {@link org.jraf.android.util.bitmap.BitmapCache}...) add themselves.<br/>
+ * Once registered with {@link #register(Context)}, all the trimmables are trimmed by the same fraction, depending on the level given to
+ * {@link #onTrimMemory(int)}.<br/>
+ * Trimmables call {@link #checkRetainedBytes()} when they grow: if the total exceeds the bound, they are all trimmed by the fraction needed to go back
+ * under it.
+ */
+public class MemoryPressureRegistry implements ComponentCallbacks2 {
+    private static final String TAG = Constants.TAG + MemoryPressureRegistry.class.getSimpleName();
+
+    /**
+     * The fraction of the maximum memory of the VM that the pools and caches of this library retain by default, all together.<br/>
+     * It is the default bound of the registry, and the default sizes of the caches of this library are derived from it (for instance
+     * {@link org.jraf.android.util.bitmap.BitmapCache} takes half of it).
+     */
+    public static final float DEFAULT_MAX_RETAINED_FRACTION = .25f;
+
+    private static final MemoryPressureRegistry INSTANCE = new MemoryPressureRegistry();
+
+    private final List<WeakReference<Trimmable>> mTrimmables = new ArrayList<>();
+    private volatile long mMaxRetainedBytes = getDefaultMaxRetainedBytes();
+
+    private MemoryPressureRegistry() {}
+
+    public static MemoryPressureRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns {@link #DEFAULT_MAX_RETAINED_FRACTION} of the maximum memory of the VM.
+     */
+    public static long getDefaultMaxRetainedBytes() {
+        return (long) (Runtime.getRuntime().maxMemory() * DEFAULT_MAX_RETAINED_FRACTION);
+    }
+
+    /**
+     * Adds the given trimmable to the registry.
+     */
+    public void add(Trimmable trimmable) {
+        synchronized (mTrimmables) {
+            mTrimmables.add(new WeakReference<>(trimmable));
+        }
+    }
+
+    /**
+     * Removes the given trimmable from the registry.
+     */
+    public void remove(Trimmable trimmable) {
+        synchronized (mTrimmables) {
+            for (Iterator<WeakReference<Trimmable>> i = mTrimmables.iterator(); i.hasNext(); ) {
+                Trimmable registered = i.next().get();
+                if (registered == null || registered == trimmable) i.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the live trimmables, forgetting the ones which have been garbage collected.
+     */
+    private List<Trimmable> getTrimmables() {
+        List<Trimmable> res = new ArrayList<>();
+        synchronized (mTrimmables) {
+            for (Iterator<WeakReference<Trimmable>> i = mTrimmables.iterator(); i.hasNext(); ) {
+                Trimmable trimmable = i.next().get();
+                if (trimmable == null) {
+                    i.remove();
+                } else {
+                    res.add(trimmable);
+                }
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Sets the soft bound on the total number of bytes retained by the trimmables (by default {@link #getDefaultMaxRetainedBytes()}).
+     */
+    public void setMaxRetainedBytes(long maxRetainedBytes) {
+        mMaxRetainedBytes = maxRetainedBytes;
+        checkRetainedBytes();
+    }
+
+    public long getMaxRetainedBytes() {
+        return mMaxRetainedBytes;
+    }
+
+    /**
+     * Returns the total number of bytes retained by the trimmables.
+     */
+    public long getRetainedBytes() {
+        long res = 0;
+        for (Trimmable trimmable : getTrimmables()) {
+            res += trimmable.getRetainedBytes();
+        }
+        return res;
+    }
+
+    /**
+     * Trims all the trimmables if the total number of bytes they retain exceeds the bound.<br/>
+     * This must not be called while holding a lock that a trimmable takes in {@link Trimmable#trim(float)}.
+     */
+    public void checkRetainedBytes() {
+        long retainedBytes = getRetainedBytes();
+        long maxRetainedBytes = mMaxRetainedBytes;
+        if (retainedBytes <= maxRetainedBytes) return;
+        float fraction = 1f - (float) maxRetainedBytes / retainedBytes;
+        Log.d(TAG, "checkRetainedBytes retainedBytes=" + retainedBytes + " maxRetainedBytes=" + maxRetainedBytes + " -> trim " + fraction);
+        trim(fraction);
+    }
+
+    /**
+     * Trims all the trimmables by the given fraction.
+     *
+     * @param fraction The fraction to release, between {@code 0} and {@code 1} ({@code 1} meaning everything).
+     */
+    public void trim(float fraction) {
+        // Trim outside of the lock, so that trimmables can call the registry
+        for (Trimmable trimmable : getTrimmables()) {
+            trimmable.trim(fraction);
+        }
+    }
+
+    /**
+     * Registers this registry to trim the trimmables when the system asks the application to trim its memory.
+     */
+    public void register(Context context) {
+        context.getApplicationContext().registerComponentCallbacks(this);
+    }
+
+    /**
+     * Stops trimming the trimmables when the system asks the application to trim its memory.
+     */
+    public void unregister(Context context) {
+        context.getApplicationContext().unregisterComponentCallbacks(this);
+    }
+
+
+    /*
+     * ComponentCallbacks2 implementation.
+     */
+
+    @Override
+    public void onTrimMemory(int level) {
+        float fraction;
+        if (level >= TRIM_MEMORY_COMPLETE) {
+            fraction = 1f;
+        } else if (level >= TRIM_MEMORY_MODERATE) {
+            fraction = .75f;
+        } else if (level >= TRIM_MEMORY_BACKGROUND) {
+            fraction = .5f;
+        } else if (level >= TRIM_MEMORY_UI_HIDDEN) {
+            // The UI is not visible anymore: what it needed can go
+            fraction = .5f;
+        } else if (level >= TRIM_MEMORY_RUNNING_CRITICAL) {
+            fraction = .75f;
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            fraction = .5f;
+        } else {
+            fraction = .25f;
+        }
+        Log.d(TAG, "onTrimMemory level=" + level + " -> trim " + fraction);
+        trim(fraction);
+    }
+
+    @Override
+    public void onLowMemory() {
+        trim(1f);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {}
+}
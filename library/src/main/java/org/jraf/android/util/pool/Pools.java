@@ -24,6 +24,12 @@
  */
 package org.jraf.android.util.pool;
 
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
 /**
  * Helper class for crating pools of objects. An example use looks like this:
  * <pre>
@@ -45,6 +51,9 @@ package org.jraf.android.util.pool;
  * . . .
  * }
  * </pre>
+ * The pools are {@link Trimmable}, so they can be added to the {@link MemoryPressureRegistry}. Give them a {@link Sizer} so that the bytes they retain
+ * are counted.<br/>
+ * A {@link FactoryPool} can also be used to create and reset the instances, instead of doing it by hand as above.<br/>
  * Note: this was taken from the Android Open Source Project (platform/frameworks/base/core/java/android/util/Pools.java).
  */
 public final class Pools {
@@ -72,32 +81,107 @@ public final class Pools {
         public boolean release(T instance);
     }
 
+    /**
+     * Estimates the number of bytes retained by a pooled instance, so that pools can report what they retain in {@link Trimmable#getRetainedBytes()}.
+     * 
+     * @param <T> The pooled type.
+     */
+    public static interface Sizer<T> {
+        /**
+         * @return The estimated number of bytes retained by the given instance. It must not change while the instance is pooled.
+         */
+        public long sizeOf(T instance);
+    }
+
     private Pools() {
         /* do nothing - hiding constructor */
     }
 
     /**
-     * Simple (non-synchronized) pool of objects.
+     * Returns a {@link Sizer} estimating all the instances to the given number of bytes.
+     * 
+     * @param byteCount The estimated number of bytes retained by an instance.
+     */
+    public static <T> Sizer<T> fixedSize(final long byteCount) {
+        return new Sizer<T>() {
+            @Override
+            public long sizeOf(T instance) {
+                return byteCount;
+            }
+        };
+    }
+
+    private static <T> long sizeOf(Sizer<T> sizer, T instance) {
+        return sizer == null ? 0 : sizer.sizeOf(instance);
+    }
+
+    /**
+     * Simple (non-synchronized) pool of objects.<br/>
+     * By default, {@link #release(Object)} checks that the instance is not already in the pool: for small pools by scanning them, and for bigger ones with
+     * an identity set so that releasing stays constant time. The check can be disabled.
      * 
      * @param <T> The pooled type.
      */
-    public static class SimplePool<T> implements Pool<T> {
+    public static class SimplePool<T> implements Pool<T>, Trimmable {
+        /**
+         * Up to this size, scanning the pool is cheaper than maintaining an identity set.
+         */
+        private static final int MAX_SCANNED_POOL_SIZE = 8;
+
         private final Object[] mPool;
+        private final boolean mCheckReleased;
+        private final Set<Object> mPooledInstances;
+        private final Sizer<T> mSizer;
 
         private int mPoolSize;
+        private long mRetainedBytes;
 
         /**
-         * Creates a new instance.
+         * Creates a new instance, checking for double releases.
          * 
          * @param maxPoolSize The max pool size.
          * 
          * @throws IllegalArgumentException If the max pool size is less than zero.
          */
         public SimplePool(int maxPoolSize) {
+            this(maxPoolSize, true);
+        }
+
+        /**
+         * Creates a new instance.
+         * 
+         * @param maxPoolSize The max pool size.
+         * @param checkReleased Whether {@link #release(Object)} should throw an {@link IllegalStateException} if the instance is already in the pool (for
+         *            instance only in debug builds).
+         * 
+         * @throws IllegalArgumentException If the max pool size is less than zero.
+         */
+        public SimplePool(int maxPoolSize, boolean checkReleased) {
+            this(maxPoolSize, checkReleased, null);
+        }
+
+        /**
+         * Creates a new instance.
+         * 
+         * @param maxPoolSize The max pool size.
+         * @param checkReleased Whether {@link #release(Object)} should throw an {@link IllegalStateException} if the instance is already in the pool (for
+         *            instance only in debug builds).
+         * @param sizer The sizer used to count the retained bytes (can be {@code null}, in which case they are not counted).
+         * 
+         * @throws IllegalArgumentException If the max pool size is less than zero.
+         */
+        public SimplePool(int maxPoolSize, boolean checkReleased, Sizer<T> sizer) {
             if (maxPoolSize <= 0) {
                 throw new IllegalArgumentException("The max pool size must be > 0");
             }
             mPool = new Object[maxPoolSize];
+            mCheckReleased = checkReleased;
+            mSizer = sizer;
+            if (checkReleased && maxPoolSize > MAX_SCANNED_POOL_SIZE) {
+                mPooledInstances = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>(maxPoolSize));
+            } else {
+                mPooledInstances = null;
+            }
         }
 
         @Override
@@ -108,6 +192,10 @@ public final class Pools {
                 T instance = (T) mPool[lastPooledIndex];
                 mPool[lastPooledIndex] = null;
                 mPoolSize--;
+                if (mPooledInstances != null) {
+                    mPooledInstances.remove(instance);
+                }
+                mRetainedBytes -= sizeOf(mSizer, instance);
                 return instance;
             }
             return null;
@@ -115,18 +203,55 @@ public final class Pools {
 
         @Override
         public boolean release(T instance) {
-            if (isInPool(instance)) {
+            return release(instance, null);
+        }
+
+        /**
+         * Like {@link #release(Object)}, but calls the given resetter on the instance only once it is known to be put in the pool: not if it is already in the
+         * pool, nor if the pool is full.
+         */
+        boolean release(T instance, Resetter<T> resetter) {
+            if (mCheckReleased && isInPool(instance)) {
                 throw new IllegalStateException("Already in the pool!");
             }
             if (mPoolSize < mPool.length) {
+                if (resetter != null) {
+                    resetter.reset(instance);
+                }
                 mPool[mPoolSize] = instance;
                 mPoolSize++;
+                if (mPooledInstances != null) {
+                    mPooledInstances.add(instance);
+                }
+                mRetainedBytes += sizeOf(mSizer, instance);
                 return true;
             }
             return false;
         }
 
+        /**
+         * @return The estimated number of bytes retained by the pooled instances, or {@code 0} if no {@link Sizer} was given.
+         */
+        @Override
+        public long getRetainedBytes() {
+            return mRetainedBytes;
+        }
+
+        /**
+         * Drops the given fraction of the pooled instances.
+         */
+        @Override
+        public void trim(float fraction) {
+            int count = (int) Math.ceil(mPoolSize * fraction);
+            for (int i = 0; i < count; i++) {
+                acquire();
+            }
+        }
+
         private boolean isInPool(T instance) {
+            if (mPooledInstances != null) {
+                return mPooledInstances.contains(instance);
+            }
             for (int i = 0; i < mPoolSize; i++) {
                 if (mPool[i] == instance) {
                     return true;
@@ -155,6 +280,31 @@ public final class Pools {
             super(maxPoolSize);
         }
 
+        /**
+         * Creates a new instance.
+         * 
+         * @param maxPoolSize The max pool size.
+         * @param checkReleased Whether {@link #release(Object)} should throw an {@link IllegalStateException} if the instance is already in the pool.
+         * 
+         * @throws IllegalArgumentException If the max pool size is less than zero.
+         */
+        public SynchronizedPool(int maxPoolSize, boolean checkReleased) {
+            super(maxPoolSize, checkReleased);
+        }
+
+        /**
+         * Creates a new instance.
+         * 
+         * @param maxPoolSize The max pool size.
+         * @param checkReleased Whether {@link #release(Object)} should throw an {@link IllegalStateException} if the instance is already in the pool.
+         * @param sizer The sizer used to count the retained bytes (can be {@code null}, in which case they are not counted).
+         * 
+         * @throws IllegalArgumentException If the max pool size is less than zero.
+         */
+        public SynchronizedPool(int maxPoolSize, boolean checkReleased, Sizer<T> sizer) {
+            super(maxPoolSize, checkReleased, sizer);
+        }
+
         @Override
         public T acquire() {
             synchronized (mLock) {
@@ -168,5 +318,350 @@ public final class Pools {
                 return super.release(element);
             }
         }
+
+        @Override
+        boolean release(T element, Resetter<T> resetter) {
+            synchronized (mLock) {
+                return super.release(element, resetter);
+            }
+        }
+
+        @Override
+        public long getRetainedBytes() {
+            synchronized (mLock) {
+                return super.getRetainedBytes();
+            }
+        }
+
+        @Override
+        public void trim(float fraction) {
+            synchronized (mLock) {
+                super.trim(fraction);
+            }
+        }
+    }
+
+    /**
+     * Lock-free pool of objects, which can be used concurrently by several threads without contending on a monitor.<br/>
+     * The pooled instances are kept in an array of slots, which are taken and filled with compare-and-set operations. Each thread starts scanning the
+     * slots at a different index, so that threads rarely compete for the same slot.<br/>
+     * Note: to stay lock-free, {@link #release(Object)} doesn't check if the instance is already in the pool.
+     * 
+     * @param <T> The pooled type.
+     */
+    public static class ConcurrentPool<T> implements Pool<T>, Trimmable {
+        private final AtomicReferenceArray<T> mPool;
+        private final Sizer<T> mSizer;
+        private final AtomicLong mRetainedBytes = new AtomicLong();
+
+        /**
+         * Creates a new instance.
+         * 
+         * @param maxPoolSize The max pool size.
+         * 
+         * @throws IllegalArgumentException If the max pool size is less than zero.
+         */
+        public ConcurrentPool(int maxPoolSize) {
+            this(maxPoolSize, null);
+        }
+
+        /**
+         * Creates a new instance.
+         * 
+         * @param maxPoolSize The max pool size.
+         * @param sizer The sizer used to count the retained bytes (can be {@code null}, in which case they are not counted).
+         * 
+         * @throws IllegalArgumentException If the max pool size is less than zero.
+         */
+        public ConcurrentPool(int maxPoolSize, Sizer<T> sizer) {
+            if (maxPoolSize <= 0) {
+                throw new IllegalArgumentException("The max pool size must be > 0");
+            }
+            mPool = new AtomicReferenceArray<T>(maxPoolSize);
+            mSizer = sizer;
+        }
+
+        private int getStartIndex() {
+            return (int) (Thread.currentThread().getId() % mPool.length());
+        }
+
+        @Override
+        public T acquire() {
+            final int length = mPool.length();
+            final int start = getStartIndex();
+            for (int i = 0; i < length; i++) {
+                final int index = (start + i) % length;
+                T instance = mPool.get(index);
+                if (instance != null && mPool.compareAndSet(index, instance, null)) {
+                    mRetainedBytes.addAndGet(-sizeOf(mSizer, instance));
+                    return instance;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public boolean release(T instance) {
+            final int length = mPool.length();
+            final int start = getStartIndex();
+            for (int i = 0; i < length; i++) {
+                final int index = (start + i) % length;
+                if (mPool.get(index) == null && mPool.compareAndSet(index, null, instance)) {
+                    mRetainedBytes.addAndGet(sizeOf(mSizer, instance));
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return The estimated number of bytes retained by the pooled instances, or {@code 0} if no {@link Sizer} was given.
+         */
+        @Override
+        public long getRetainedBytes() {
+            return mRetainedBytes.get();
+        }
+
+        /**
+         * Drops the given fraction of the pooled instances.
+         */
+        @Override
+        public void trim(float fraction) {
+            final int length = mPool.length();
+            for (int i = 0; i < length; i++) {
+                // Spread the dropped instances over the slots
+                if ((int) ((i + 1) * fraction) > (int) (i * fraction)) {
+                    T instance = mPool.getAndSet(i, null);
+                    if (instance != null) {
+                        mRetainedBytes.addAndGet(-sizeOf(mSizer, instance));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Pool of objects keeping a small cache of instances per thread, in front of a shared {@link ConcurrentPool}.<br/>
+     * A thread only touches the shared pool when its own cache is empty (on {@link #acquire()}) or full (on {@link #release(Object)}), so threads which
+     * acquire and release instances at the same rate never contend.
+     * 
+     * @param <T> The pooled type.
+     */
+    public static class ThreadLocalPool<T> implements Pool<T>, Trimmable {
+        private final ConcurrentPool<T> mSharedPool;
+        private final ThreadLocal<SimplePool<T>> mLocalPool;
+
+        /**
+         * Creates a new instance.
+         * 
+         * @param maxLocalPoolSize The max size of the pool of each thread.
+         * @param maxSharedPoolSize The max size of the shared pool.
+         * 
+         * @throws IllegalArgumentException If one of the max pool sizes is less than zero.
+         */
+        public ThreadLocalPool(int maxLocalPoolSize, int maxSharedPoolSize) {
+            this(maxLocalPoolSize, maxSharedPoolSize, null);
+        }
+
+        /**
+         * Creates a new instance.
+         * 
+         * @param maxLocalPoolSize The max size of the pool of each thread.
+         * @param maxSharedPoolSize The max size of the shared pool.
+         * @param sizer The sizer used to count the bytes retained by the shared pool (can be {@code null}, in which case they are not counted).
+         * 
+         * @throws IllegalArgumentException If one of the max pool sizes is less than zero.
+         */
+        public ThreadLocalPool(final int maxLocalPoolSize, int maxSharedPoolSize, Sizer<T> sizer) {
+            if (maxLocalPoolSize <= 0) {
+                throw new IllegalArgumentException("The max pool size must be > 0");
+            }
+            mSharedPool = new ConcurrentPool<T>(maxSharedPoolSize, sizer);
+            mLocalPool = new ThreadLocal<SimplePool<T>>() {
+                @Override
+                protected SimplePool<T> initialValue() {
+                    return new SimplePool<T>(maxLocalPoolSize);
+                }
+            };
+        }
+
+        @Override
+        public T acquire() {
+            T instance = mLocalPool.get().acquire();
+            if (instance != null) {
+                return instance;
+            }
+            return mSharedPool.acquire();
+        }
+
+        @Override
+        public boolean release(T instance) {
+            if (mLocalPool.get().release(instance)) {
+                return true;
+            }
+            return mSharedPool.release(instance);
+        }
+
+        /**
+         * @return The estimated number of bytes retained by the shared pool, or {@code 0} if no {@link Sizer} was given. The small pools of the threads are
+         *         not counted, since they are dropped without notice when their thread ends.
+         */
+        @Override
+        public long getRetainedBytes() {
+            return mSharedPool.getRetainedBytes();
+        }
+
+        /**
+         * Drops the given fraction of the instances of the shared pool and of the pool of the calling thread (the pools of the other threads can't be
+         * reached).
+         */
+        @Override
+        public void trim(float fraction) {
+            mLocalPool.get().trim(fraction);
+            mSharedPool.trim(fraction);
+        }
+    }
+
+    /**
+     * Creates new instances for a {@link FactoryPool}.
+     * 
+     * @param <T> The pooled type.
+     */
+    public static interface Factory<T> {
+        /**
+         * @return A new instance.
+         */
+        public T create();
+    }
+
+    /**
+     * Clears the state of the instances released to a {@link FactoryPool}.
+     * 
+     * @param <T> The pooled type.
+     */
+    public static interface Resetter<T> {
+        /**
+         * Clears the state of the given instance, so that it can be reused (and doesn't keep references to other objects while pooled).<br/>
+         * It may be called while the lock of the underlying pool is held, so it should be quick.
+         */
+        public void reset(T instance);
+    }
+
+    /**
+     * Pool which always returns an instance, creating a new one when the underlying pool is empty, and resets the released instances.<br/>
+     * It counts the hits (instance taken from the pool), misses (instance created) and overflows (instance released when the pool is full), to help sizing
+     * the underlying pool: many misses and few overflows mean it is too small, many overflows mean it is too big for the traffic.<br/>
+     * It is thread safe if the underlying pool is.
+     * 
+     * @param <T> The pooled type.
+     */
+    public static class FactoryPool<T> implements Pool<T>, Trimmable {
+        private final Pool<T> mPool;
+        private final Factory<T> mFactory;
+        private final Resetter<T> mResetter;
+        private final AtomicLong mHitCount = new AtomicLong();
+        private final AtomicLong mMissCount = new AtomicLong();
+        private final AtomicLong mOverflowCount = new AtomicLong();
+
+        /**
+         * Creates a new instance.
+         * 
+         * @param pool The underlying pool.
+         * @param factory The factory to create instances when the pool is empty.
+         * @param resetter The resetter to call on released instances (can be {@code null}).
+         */
+        public FactoryPool(Pool<T> pool, Factory<T> factory, Resetter<T> resetter) {
+            mPool = pool;
+            mFactory = factory;
+            mResetter = resetter;
+        }
+
+        /**
+         * @return An instance from the pool if such, a new instance otherwise (never {@code null}).
+         */
+        @Override
+        public T acquire() {
+            T instance = mPool.acquire();
+            if (instance != null) {
+                mHitCount.incrementAndGet();
+                return instance;
+            }
+            mMissCount.incrementAndGet();
+            return mFactory.create();
+        }
+
+        /**
+         * Resets the given instance and puts it in the underlying pool.<br/>
+         * If the underlying pool is a {@link SimplePool} (or a {@link SynchronizedPool}), the instance is only reset once it is known to be put in the pool:
+         * a double release throws without resetting the instance, which may be in use by the caller who acquired it since. Otherwise it is reset before being
+         * released, since it could be acquired by another thread as soon as it is in the pool.
+         */
+        @Override
+        public boolean release(T instance) {
+            boolean released;
+            if (mPool instanceof SimplePool) {
+                released = ((SimplePool<T>) mPool).release(instance, mResetter);
+            } else {
+                if (mResetter != null) {
+                    mResetter.reset(instance);
+                }
+                released = mPool.release(instance);
+            }
+            if (released) {
+                return true;
+            }
+            mOverflowCount.incrementAndGet();
+            return false;
+        }
+
+        /**
+         * @return The number of instances taken from the pool by {@link #acquire()}.
+         */
+        public long getHitCount() {
+            return mHitCount.get();
+        }
+
+        /**
+         * @return The number of instances created by {@link #acquire()} because the pool was empty.
+         */
+        public long getMissCount() {
+            return mMissCount.get();
+        }
+
+        /**
+         * @return The number of instances given to {@link #release(Object)} which were not put in the pool because it was full.
+         */
+        public long getOverflowCount() {
+            return mOverflowCount.get();
+        }
+
+        @Override
+        public long getRetainedBytes() {
+            return mPool instanceof Trimmable ? ((Trimmable) mPool).getRetainedBytes() : 0;
+        }
+
+        /**
+         * Trims the underlying pool, if it is {@link Trimmable}.
+         */
+        @Override
+        public void trim(float fraction) {
+            if (mPool instanceof Trimmable) {
+                ((Trimmable) mPool).trim(fraction);
+            }
+        }
+
+        /**
+         * Resets the counters to zero.
+         */
+        public void resetCounts() {
+            mHitCount.set(0);
+            mMissCount.set(0);
+            mOverflowCount.set(0);
+        }
+
+        @Override
+        public String toString() {
+            return "FactoryPool[hits=" + mHitCount + " misses=" + mMissCount + " overflows=" + mOverflowCount + "]";
+        }
     }
 }
@@ -0,0 +1,42 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.util.pool;
+
+/**
+ * An object retaining memory which can be released on demand, like a pool or a cache.<br/>
+ * Trimmables can be added to the {@link MemoryPressureRegistry}, to be trimmed when the system is low on memory.
+ */
+public interface Trimmable {
+    /**
+     * Returns the approximate number of bytes retained by this object, or {@code 0} if it is not known.
+     */
+    long getRetainedBytes();
+
+    /**
+     * Releases approximately the given fraction of the memory retained by this object.
+     *
+     * @param fraction The fraction to release, between {@code 0} and {@code 1} ({@code 1} meaning everything).
+     */
+    void trim(float fraction);
+}
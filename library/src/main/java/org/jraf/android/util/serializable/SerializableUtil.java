@@ -24,7 +24,6 @@
 package org.jraf.android.util.serializable;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
@@ -32,6 +31,8 @@ import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
 
+import org.jraf.android.util.io.PooledByteArrayOutputStream;
+
 public class SerializableUtil {
     /**
      * Serialize an object into an OutputStream.<br/>
@@ -55,9 +56,13 @@ public class SerializableUtil {
      * @throws RuntimeException In case of a problem while serializing.
      */
     public static byte[] serialize(Serializable obj) {
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(1024);
-        serialize(obj, byteArrayOutputStream);
-        return byteArrayOutputStream.toByteArray();
+        PooledByteArrayOutputStream byteArrayOutputStream = new PooledByteArrayOutputStream(1024);
+        try {
+            serialize(obj, byteArrayOutputStream);
+            return byteArrayOutputStream.toByteArray();
+        } finally {
+            byteArrayOutputStream.release();
+        }
     }
 
 
@@ -27,6 +27,8 @@ import android.content.Intent;
 import android.os.Bundle;
 
 public class StringUtil {
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
     /**
      * Returns a String representation of the bundle, or {@code "null"}.
      */
@@ -43,4 +45,16 @@ public class StringUtil {
         if (intent == null) return "null";
         return intent.toString() + ", extras=" + toString(intent.getExtras());
     }
+
+    /**
+     * Returns the lowercase hexadecimal representation of the given bytes (two characters per byte).
+     */
+    public static String toHex(byte[] bytes) {
+        char[] res = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            res[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+            res[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xF];
+        }
+        return new String(res);
+    }
 }
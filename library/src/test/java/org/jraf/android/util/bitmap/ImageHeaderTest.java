@@ -0,0 +1,172 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.util.bitmap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class ImageHeaderTest {
+    private static final String[] SAMPLES = { "sample.jpg", "sample_exif_rotate90.jpg", "sample_exif_le_rotate270.jpg", "corrupt_exif.jpg", "sample.png",
+            "sample.gif", "sample_vp8.webp", "sample_vp8l.webp", "sample_vp8x.webp", "sample_vp8x_exif_rotate180.webp" };
+
+    @Test
+    public void jpeg() throws IOException {
+        assertHeader("sample.jpg", ImageHeader.MIME_TYPE_JPEG, 6, 4, ImageHeader.ORIENTATION_UNDEFINED, 0);
+    }
+
+    @Test
+    public void jpegExifBigEndian() throws IOException {
+        assertHeader("sample_exif_rotate90.jpg", ImageHeader.MIME_TYPE_JPEG, 6, 4, 6, 90);
+    }
+
+    @Test
+    public void jpegExifLittleEndian() throws IOException {
+        assertHeader("sample_exif_le_rotate270.jpg", ImageHeader.MIME_TYPE_JPEG, 6, 4, 8, 270);
+    }
+
+    @Test
+    public void jpegCorruptExif() throws IOException {
+        // The IFD offset points past the EXIF segment: the orientation is ignored, but the dimensions are still read
+        assertHeader("corrupt_exif.jpg", ImageHeader.MIME_TYPE_JPEG, 6, 4, ImageHeader.ORIENTATION_UNDEFINED, 0);
+    }
+
+    @Test
+    public void png() throws IOException {
+        assertHeader("sample.png", ImageHeader.MIME_TYPE_PNG, 5, 3, ImageHeader.ORIENTATION_UNDEFINED, 0);
+    }
+
+    @Test
+    public void gif() throws IOException {
+        assertHeader("sample.gif", ImageHeader.MIME_TYPE_GIF, 7, 2, ImageHeader.ORIENTATION_UNDEFINED, 0);
+    }
+
+    @Test
+    public void webpLossy() throws IOException {
+        assertHeader("sample_vp8.webp", ImageHeader.MIME_TYPE_WEBP, 1, 1, ImageHeader.ORIENTATION_UNDEFINED, 0);
+    }
+
+    @Test
+    public void webpLossless() throws IOException {
+        assertHeader("sample_vp8l.webp", ImageHeader.MIME_TYPE_WEBP, 1, 1, ImageHeader.ORIENTATION_UNDEFINED, 0);
+    }
+
+    @Test
+    public void webpExtended() throws IOException {
+        assertHeader("sample_vp8x.webp", ImageHeader.MIME_TYPE_WEBP, 1, 1, ImageHeader.ORIENTATION_UNDEFINED, 0);
+    }
+
+    @Test
+    public void webpExtendedExif() throws IOException {
+        assertHeader("sample_vp8x_exif_rotate180.webp", ImageHeader.MIME_TYPE_WEBP, 1, 1, 3, 180);
+    }
+
+    @Test
+    public void truncated() throws IOException {
+        for (String sample : SAMPLES) {
+            byte[] data = readResource(sample);
+            ImageHeader full = ImageHeader.read(new ByteArrayInputStream(data));
+            for (int length = 0; length < data.length; length++) {
+                // Never throws: either the header is complete, or null is returned
+                ImageHeader header = ImageHeader.read(new ByteArrayInputStream(Arrays.copyOf(data, length)));
+                if (header != null) {
+                    assertEquals(sample + " length=" + length, full.width, header.width);
+                    assertEquals(sample + " length=" + length, full.height, header.height);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void notAnImage() throws IOException {
+        assertNull(ImageHeader.read(new ByteArrayInputStream("Hello, World!".getBytes("US-ASCII"))));
+        assertNull(ImageHeader.read(new ByteArrayInputStream(new byte[0])));
+    }
+
+    @Test
+    public void corruptSignatures() throws IOException {
+        for (String sample : new String[] { "sample.png", "sample.gif", "sample_vp8.webp" }) {
+            byte[] data = readResource(sample);
+            data[3] ^= 0xFF;
+            assertNull(sample, ImageHeader.read(new ByteArrayInputStream(data)));
+        }
+        // A segment which is not a marker
+        byte[] data = readResource("sample.jpg");
+        data[2] = 0;
+        assertNull(ImageHeader.read(new ByteArrayInputStream(data)));
+    }
+
+    @Test
+    public void corruptPngDimensions() throws IOException {
+        byte[] data = readResource("sample.png");
+        // Width, in the IHDR chunk
+        data[16] = (byte) 0x80;
+        assertNull(ImageHeader.read(new ByteArrayInputStream(data)));
+    }
+
+    @Test
+    public void corruptWebpChunk() throws IOException {
+        byte[] data = readResource("sample_vp8x_exif_rotate180.webp");
+        // Size of the VP8X chunk, making the EXIF chunk unreachable
+        data[16] = (byte) 0xFF;
+        data[17] = (byte) 0xFF;
+        ImageHeader header = ImageHeader.read(new ByteArrayInputStream(data));
+        assertNotNull(header);
+        assertEquals(ImageHeader.ORIENTATION_UNDEFINED, header.exifOrientation);
+    }
+
+    private static void assertHeader(String sample, String mimeType, int width, int height, int exifOrientation, int rotation) throws IOException {
+        ImageHeader header = ImageHeader.read(new ByteArrayInputStream(readResource(sample)));
+        assertNotNull(sample, header);
+        assertEquals(sample, mimeType, header.mimeType);
+        assertEquals(sample, width, header.width);
+        assertEquals(sample, height, header.height);
+        assertEquals(sample, exifOrientation, header.exifOrientation);
+        assertEquals(sample, rotation, header.getRotation());
+    }
+
+    private static byte[] readResource(String name) throws IOException {
+        InputStream in = ImageHeaderTest.class.getResourceAsStream(name);
+        assertNotNull(name, in);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
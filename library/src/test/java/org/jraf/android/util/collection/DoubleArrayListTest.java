@@ -0,0 +1,96 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.util.collection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class DoubleArrayListTest {
+    private static final double DELTA = 0;
+
+    @Test
+    public void equalsNaN() {
+        DoubleArrayList list = new DoubleArrayList(new double[] {1, Double.NaN});
+        DoubleArrayList other = new DoubleArrayList(new double[] {1, Double.NaN});
+        // Unlike ==, NaN is equal to itself
+        assertEquals(list, other);
+        assertEquals(list.hashCode(), other.hashCode());
+        assertEquals(1, list.indexOf(Double.NaN));
+        assertTrue(list.contains(Double.NaN));
+    }
+
+    @Test
+    public void equalsNegativeZero() {
+        DoubleArrayList list = new DoubleArrayList(new double[] {0.0});
+        DoubleArrayList other = new DoubleArrayList(new double[] {-0.0});
+        // Unlike ==, 0.0 is different from -0.0
+        assertFalse(list.equals(other));
+        assertEquals(-1, list.indexOf(-0.0));
+        assertFalse(other.contains(0.0));
+    }
+
+    @Test
+    public void removeAll() {
+        DoubleArrayList list = new DoubleArrayList(new double[] {Double.NaN, 0.0, 1.5, -0.0, Double.NaN, 2.5});
+        assertEquals(3, list.removeAll(new double[] {Double.NaN, -0.0}));
+        assertEquals(new DoubleArrayList(new double[] {0.0, 1.5, 2.5}), list);
+    }
+
+    @Test
+    public void removeRange() {
+        DoubleArrayList list = new DoubleArrayList(new double[] {0, 1, 2, 3});
+        list.removeRange(0, 3);
+        assertEquals(1, list.size());
+        assertEquals(3, list.get(0), DELTA);
+    }
+
+    @Test
+    public void binarySearch() {
+        DoubleArrayList list = new DoubleArrayList(new double[] {Double.NaN, 2, 0.0, -0.0, -1});
+        list.sort();
+        assertEquals(new DoubleArrayList(new double[] {-1, -0.0, 0.0, 2, Double.NaN}), list);
+        assertEquals(1, list.binarySearch(-0.0));
+        assertEquals(2, list.binarySearch(0.0));
+        assertEquals(4, list.binarySearch(Double.NaN));
+        assertEquals(-4, list.binarySearch(1));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void addAllOverflow() {
+        new DoubleArrayList().addAll(new double[] {1, 2, 3}, 2, Integer.MAX_VALUE);
+    }
+
+    @Test
+    public void growth() {
+        DoubleArrayList list = new DoubleArrayList();
+        for (int i = 0; i < 100; i++) {
+            list.add(i / 2d);
+        }
+        assertEquals(100, list.size());
+        assertEquals(49.5, list.get(99), DELTA);
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.util.collection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class FloatArrayListTest {
+    private static final float DELTA = 0;
+
+    @Test
+    public void equalsNaN() {
+        FloatArrayList list = new FloatArrayList(new float[] {1, Float.NaN});
+        FloatArrayList other = new FloatArrayList(new float[] {1, Float.NaN});
+        // Unlike ==, NaN is equal to itself
+        assertEquals(list, other);
+        assertEquals(list.hashCode(), other.hashCode());
+        assertEquals(1, list.indexOf(Float.NaN));
+        assertTrue(list.contains(Float.NaN));
+    }
+
+    @Test
+    public void equalsNegativeZero() {
+        FloatArrayList list = new FloatArrayList(new float[] {0.0f});
+        FloatArrayList other = new FloatArrayList(new float[] {-0.0f});
+        // Unlike ==, 0.0f is different from -0.0f
+        assertFalse(list.equals(other));
+        assertEquals(-1, list.indexOf(-0.0f));
+        assertFalse(other.contains(0.0f));
+    }
+
+    @Test
+    public void removeAll() {
+        FloatArrayList list = new FloatArrayList(new float[] {Float.NaN, 0.0f, 1.5f, -0.0f, Float.NaN, 2.5f});
+        assertEquals(3, list.removeAll(new float[] {Float.NaN, -0.0f}));
+        assertEquals(new FloatArrayList(new float[] {0.0f, 1.5f, 2.5f}), list);
+    }
+
+    @Test
+    public void removeRange() {
+        FloatArrayList list = new FloatArrayList(new float[] {0, 1, 2, 3});
+        list.removeRange(0, 3);
+        assertEquals(1, list.size());
+        assertEquals(3, list.get(0), DELTA);
+    }
+
+    @Test
+    public void binarySearch() {
+        FloatArrayList list = new FloatArrayList(new float[] {Float.NaN, 2, 0.0f, -0.0f, -1});
+        list.sort();
+        assertEquals(new FloatArrayList(new float[] {-1, -0.0f, 0.0f, 2, Float.NaN}), list);
+        assertEquals(1, list.binarySearch(-0.0f));
+        assertEquals(2, list.binarySearch(0.0f));
+        assertEquals(4, list.binarySearch(Float.NaN));
+        assertEquals(-4, list.binarySearch(1));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void addAllOverflow() {
+        new FloatArrayList().addAll(new float[] {1, 2, 3}, 2, Integer.MAX_VALUE);
+    }
+
+    @Test
+    public void growth() {
+        FloatArrayList list = new FloatArrayList();
+        for (int i = 0; i < 100; i++) {
+            list.add(i / 2f);
+        }
+        assertEquals(100, list.size());
+        assertEquals(49.5f, list.get(99), DELTA);
+    }
+}
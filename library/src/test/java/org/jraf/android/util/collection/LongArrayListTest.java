@@ -0,0 +1,168 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.util.collection;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class LongArrayListTest {
+    @Test
+    public void growth() {
+        LongArrayList list = new LongArrayList();
+        for (int i = 0; i < 1000; i++) {
+            list.add(i);
+        }
+        assertEquals(1000, list.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, list.get(i));
+        }
+        list.add(0, -1);
+        assertEquals(1001, list.size());
+        assertEquals(-1, list.get(0));
+        assertEquals(999, list.get(1000));
+
+        list.trimToSize();
+        list.add(1000);
+        assertEquals(1000, list.get(1001));
+    }
+
+    @Test
+    public void growthFromZeroCapacity() {
+        LongArrayList list = new LongArrayList(0);
+        list.add(0, 42);
+        list.addAll(new long[] {1, 2, 3});
+        list.ensureCapacity(100);
+        assertArrayEquals(new long[] {42, 1, 2, 3}, list.toArray());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void getOutOfBounds() {
+        LongArrayList list = new LongArrayList(10);
+        list.add(1);
+        // Within the capacity, but not the size
+        list.get(1);
+    }
+
+    @Test
+    public void addAllRange() {
+        LongArrayList list = new LongArrayList();
+        list.addAll(new long[] {1, 2, 3, 4, 5}, 1, 3);
+        assertArrayEquals(new long[] {2, 3, 4}, list.toArray());
+        list.addAll(list);
+        assertArrayEquals(new long[] {2, 3, 4, 2, 3, 4}, list.toArray());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void addAllOverflow() {
+        // offset + count overflows to a negative number
+        new LongArrayList().addAll(new long[] {1, 2, 3}, 2, Integer.MAX_VALUE);
+    }
+
+    @Test
+    public void removeRange() {
+        LongArrayList list = new LongArrayList(new long[] {0, 1, 2, 3, 4, 5});
+        list.removeRange(1, 3);
+        assertArrayEquals(new long[] {0, 3, 4, 5}, list.toArray());
+        list.removeRange(2, 2);
+        assertArrayEquals(new long[] {0, 3, 4, 5}, list.toArray());
+        list.removeRange(2, 4);
+        assertArrayEquals(new long[] {0, 3}, list.toArray());
+        list.removeRange(0, 2);
+        assertTrue(list.isEmpty());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void removeRangeOutOfBounds() {
+        new LongArrayList(new long[] {0, 1, 2}).removeRange(1, 4);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void removeRangeReversed() {
+        new LongArrayList(new long[] {0, 1, 2}).removeRange(2, 1);
+    }
+
+    @Test
+    public void removeAll() {
+        LongArrayList list = new LongArrayList(new long[] {5, 1, 2, 5, 3, 1, 4});
+        assertEquals(4, list.removeAll(new long[] {5, 1, 42}));
+        assertArrayEquals(new long[] {2, 3, 4}, list.toArray());
+        assertEquals(0, list.removeAll(new long[0]));
+        assertEquals(1, list.removeAll(new LongArrayList(new long[] {3})));
+        assertArrayEquals(new long[] {2, 4}, list.toArray());
+        assertEquals(2, list.removeAll(new long[] {4, 2}));
+        assertTrue(list.isEmpty());
+    }
+
+    @Test
+    public void removeValue() {
+        LongArrayList list = new LongArrayList(new long[] {1, 2, 1});
+        assertTrue(list.removeValue(1));
+        assertArrayEquals(new long[] {2, 1}, list.toArray());
+        assertFalse(list.removeValue(3));
+        assertEquals(1, list.lastIndexOf(1));
+    }
+
+    @Test
+    public void binarySearch() {
+        LongArrayList list = new LongArrayList(new long[] {9, 3, 7, 1, 5});
+        list.sort();
+        assertArrayEquals(new long[] {1, 3, 5, 7, 9}, list.toArray());
+        assertEquals(0, list.binarySearch(1));
+        assertEquals(4, list.binarySearch(9));
+        assertEquals(-1, list.binarySearch(0));
+        assertEquals(-3, list.binarySearch(4));
+        assertEquals(-6, list.binarySearch(10));
+
+        // Only the values, not the rest of the capacity, are searched
+        list.removeRange(3, 5);
+        assertEquals(-4, list.binarySearch(7));
+    }
+
+    @Test
+    public void equalsAndHashCode() {
+        LongArrayList list = new LongArrayList(100);
+        list.addAll(new long[] {1, 2, 3});
+        LongArrayList other = new LongArrayList(new long[] {1, 2, 3, 4});
+        assertFalse(list.equals(other));
+        other.removeAt(3);
+        assertEquals(list, other);
+        assertEquals(list.hashCode(), other.hashCode());
+        assertEquals("[1, 2, 3]", list.toString());
+    }
+
+    @Test
+    public void hashCodeFoldsHighBits() {
+        // Values which only differ in their high 32 bits
+        long[] values = {1L << 32, 1L << 33, Long.MIN_VALUE, -1L, 0L};
+        LongArrayList list = new LongArrayList(values);
+        assertEquals(Arrays.hashCode(values), list.hashCode());
+        assertFalse(new LongArrayList(new long[] {0L}).hashCode() == new LongArrayList(new long[] {1L << 32}).hashCode());
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.util.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.junit.Test;
+
+public class DirectorySizeIndexTest {
+    @Test
+    public void reopen() throws IOException {
+        File directory = createTempDirectory();
+        try {
+            DirectorySizeIndex index = DirectorySizeIndex.open(directory);
+            write(index, new File(directory, "a"), 10);
+            write(index, new File(directory, "b"), 20);
+            index.close();
+
+            index = DirectorySizeIndex.open(directory);
+            assertEquals(2, index.getFileCount());
+            assertEquals(30, index.getTotalSize());
+            index.close();
+        } finally {
+            FileUtil.deleteRecursively(directory);
+        }
+    }
+
+    @Test
+    public void reopenAfterTruncatedLine() throws IOException {
+        File directory = createTempDirectory();
+        try {
+            DirectorySizeIndex index = DirectorySizeIndex.open(directory);
+            write(index, new File(directory, "a"), 10);
+            write(index, new File(directory, "b"), 20);
+            index.close();
+
+            // Simulate a process killed in the middle of an append: the truncated line looks like a valid delete
+            appendToIndex(directory, "D b");
+
+            // The records written after the truncated line must not be merged into it
+            index = DirectorySizeIndex.open(directory);
+            assertEquals(30, index.getTotalSize());
+            write(index, new File(directory, "c"), 40);
+            index.close();
+
+            index = DirectorySizeIndex.open(directory);
+            assertEquals(3, index.getFileCount());
+            assertEquals(70, index.getTotalSize());
+            index.close();
+        } finally {
+            FileUtil.deleteRecursively(directory);
+        }
+    }
+
+    @Test
+    public void reopenAfterUnexpectedLine() throws IOException {
+        File directory = createTempDirectory();
+        try {
+            DirectorySizeIndex index = DirectorySizeIndex.open(directory);
+            write(index, new File(directory, "a"), 10);
+            index.close();
+
+            appendToIndex(directory, "X\n");
+
+            index = DirectorySizeIndex.open(directory);
+            write(index, new File(directory, "b"), 20);
+            index.close();
+
+            index = DirectorySizeIndex.open(directory);
+            assertEquals(2, index.getFileCount());
+            assertEquals(30, index.getTotalSize());
+            index.close();
+        } finally {
+            FileUtil.deleteRecursively(directory);
+        }
+    }
+
+    @Test
+    public void deleteRecursively() throws IOException {
+        File directory = createTempDirectory();
+        try {
+            DirectorySizeIndex index = DirectorySizeIndex.open(directory);
+            File subDirectory = new File(directory, "sub");
+            assertTrue(subDirectory.mkdir());
+            write(index, new File(directory, "a"), 10);
+            write(index, new File(subDirectory, "b"), 20);
+            write(index, new File(subDirectory, "c"), 40);
+            // Shares a prefix with the deleted directory, but is not inside it
+            write(index, new File(directory, "sub2"), 80);
+
+            FileUtil.DeleteResult deleteResult = index.deleteRecursively(subDirectory, null, 2);
+            assertEquals(2, deleteResult.deletedFileCount);
+            assertFalse(subDirectory.exists());
+            assertEquals(2, index.getFileCount());
+            assertEquals(90, index.getTotalSize());
+
+            // The whole directory: everything but the index file is deleted
+            index.deleteRecursively(directory, null, 1);
+            assertTrue(new File(directory, DirectorySizeIndex.INDEX_FILE).exists());
+            assertEquals(0, index.getFileCount());
+            assertEquals(0, index.getTotalSize());
+            index.close();
+
+            index = DirectorySizeIndex.open(directory);
+            assertEquals(0, index.getFileCount());
+            index.close();
+        } finally {
+            FileUtil.deleteRecursively(directory);
+        }
+    }
+
+    private static File createTempDirectory() throws IOException {
+        File res = File.createTempFile(DirectorySizeIndexTest.class.getSimpleName(), "");
+        if (!res.delete() || !res.mkdir()) throw new IOException("Could not create directory " + res);
+        return res;
+    }
+
+    private static void write(DirectorySizeIndex index, File file, int size) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[size]);
+        } finally {
+            out.close();
+        }
+        index.onFileWritten(file);
+    }
+
+    private static void appendToIndex(File directory, String text) throws IOException {
+        OutputStream out = new FileOutputStream(new File(directory, DirectorySizeIndex.INDEX_FILE), true);
+        try {
+            out.write(text.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.util.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.junit.Test;
+
+import org.jraf.android.util.io.IoUtil;
+
+public class DiskLruCacheTest {
+    private static final long MAX_SIZE = 1024 * 1024;
+
+    @Test
+    public void reopen() throws IOException {
+        File directory = createTempDirectory();
+        try {
+            DiskLruCache cache = DiskLruCache.open(directory, MAX_SIZE);
+            put(cache, "a", "contents a");
+            put(cache, "b", "contents b");
+            cache.close();
+
+            cache = DiskLruCache.open(directory, MAX_SIZE);
+            assertContents(cache, "a", "contents a");
+            assertContents(cache, "b", "contents b");
+            assertEquals(20, cache.size());
+            cache.close();
+        } finally {
+            FileUtil.deleteRecursively(directory);
+        }
+    }
+
+    @Test
+    public void reopenAfterTruncatedJournal() throws IOException {
+        File directory = createTempDirectory();
+        try {
+            DiskLruCache cache = DiskLruCache.open(directory, MAX_SIZE);
+            put(cache, "a", "contents a");
+            put(cache, "b", "contents b");
+            cache.close();
+
+            // Simulate a process killed in the middle of a journal write
+            OutputStream out = new FileOutputStream(new File(directory, "journal.log"), true);
+            try {
+                // Looks like a valid record, but is missing the end of the length
+                out.write("CLEAN a 1".getBytes("US-ASCII"));
+            } finally {
+                out.close();
+            }
+
+            // The records written after the truncated line must not be merged into it
+            cache = DiskLruCache.open(directory, MAX_SIZE);
+            assertFalse(readJournal(directory).contains("CLEAN a 1\n"));
+            assertTrue(readJournal(directory).endsWith("\n"));
+            assertContents(cache, "a", "contents a");
+            put(cache, "d", "contents d");
+            cache.remove("b");
+            cache.close();
+
+            cache = DiskLruCache.open(directory, MAX_SIZE);
+            assertContents(cache, "a", "contents a");
+            assertContents(cache, "d", "contents d");
+            assertNull(cache.get("b"));
+            assertNull(cache.get("c"));
+            assertEquals(20, cache.size());
+            cache.close();
+        } finally {
+            FileUtil.deleteRecursively(directory);
+        }
+    }
+
+    private static File createTempDirectory() throws IOException {
+        File res = File.createTempFile(DiskLruCacheTest.class.getSimpleName(), "");
+        if (!res.delete() || !res.mkdir()) throw new IOException("Could not create directory " + res);
+        return res;
+    }
+
+    private static String readJournal(File directory) throws IOException {
+        InputStream in = new FileInputStream(new File(directory, "journal.log"));
+        try {
+            return IoUtil.readFully(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void put(DiskLruCache cache, String key, String contents) throws IOException {
+        DiskLruCache.Editor editor = cache.edit(key);
+        assertNotNull(editor);
+        OutputStream out = editor.newOutputStream();
+        try {
+            out.write(contents.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        editor.commit();
+    }
+
+    private static void assertContents(DiskLruCache cache, String key, String expected) throws IOException {
+        InputStream in = cache.getInputStream(key);
+        assertNotNull(key, in);
+        try {
+            assertEquals(expected, IoUtil.readFully(in));
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.util.pool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Compares the throughput of {@link Pools.SynchronizedPool}, {@link Pools.ConcurrentPool} and {@link Pools.ThreadLocalPool} under contention.<br/>
+ * Each thread acquires and releases instances in a tight loop, which is the worst case for the pools. This is not a unit test (it only prints its results):
+ * run its {@code main} method from the IDE, on an idle machine. Each measure is repeated after a warm up, and the best run is kept.
+ */
+public class PoolsBenchmark {
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8};
+    private static final int MAX_POOL_SIZE = 16;
+    private static final int OPERATION_COUNT = 2000000;
+    private static final int WARM_UP_RUN_COUNT = 3;
+    private static final int RUN_COUNT = 5;
+    private static final int HELD_COUNT = 2;
+
+    private interface PoolFactory {
+        Pools.Pool<Object> create();
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        System.out.println(String.format(Locale.US, "%-18s %8s %14s", "Pool", "Threads", "Ops/ms/thread"));
+        for (int threadCount : THREAD_COUNTS) {
+            run("SynchronizedPool", threadCount, new PoolFactory() {
+                @Override
+                public Pools.Pool<Object> create() {
+                    return new Pools.SynchronizedPool<>(MAX_POOL_SIZE);
+                }
+            });
+            run("ConcurrentPool", threadCount, new PoolFactory() {
+                @Override
+                public Pools.Pool<Object> create() {
+                    return new Pools.ConcurrentPool<>(MAX_POOL_SIZE);
+                }
+            });
+            run("ThreadLocalPool", threadCount, new PoolFactory() {
+                @Override
+                public Pools.Pool<Object> create() {
+                    return new Pools.ThreadLocalPool<>(MAX_POOL_SIZE / 4, MAX_POOL_SIZE);
+                }
+            });
+        }
+    }
+
+    private static void run(String name, int threadCount, PoolFactory poolFactory) throws InterruptedException {
+        for (int i = 0; i < WARM_UP_RUN_COUNT; i++) {
+            measure(poolFactory.create(), threadCount);
+        }
+        long bestNs = Long.MAX_VALUE;
+        for (int i = 0; i < RUN_COUNT; i++) {
+            bestNs = Math.min(bestNs, measure(poolFactory.create(), threadCount));
+        }
+        double opsPerMsPerThread = OPERATION_COUNT / (bestNs / 1000000d);
+        System.out.println(String.format(Locale.US, "%-18s %8d %14.0f", name, threadCount, opsPerMsPerThread));
+    }
+
+    /**
+     * Runs the given number of threads doing {@link #OPERATION_COUNT} acquire/release pairs each, and returns the time it took, in nanoseconds.
+     */
+    private static long measure(final Pools.Pool<Object> pool, int threadCount) throws InterruptedException {
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final CountDownLatch doneLatch = new CountDownLatch(threadCount);
+        List<Thread> threads = new ArrayList<>(threadCount);
+        for (int t = 0; t < threadCount; t++) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    Object[] held = new Object[HELD_COUNT];
+                    try {
+                        startLatch.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < OPERATION_COUNT; i += HELD_COUNT) {
+                        for (int j = 0; j < HELD_COUNT; j++) {
+                            Object instance = pool.acquire();
+                            held[j] = instance == null ? new Object() : instance;
+                        }
+                        for (int j = 0; j < HELD_COUNT; j++) {
+                            pool.release(held[j]);
+                        }
+                    }
+                    doneLatch.countDown();
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        long start = System.nanoTime();
+        startLatch.countDown();
+        doneLatch.await();
+        long res = System.nanoTime() - start;
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return res;
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.util.pool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+/**
+ * Stress tests of the lock-free pools: many threads acquire and release instances, checking that an instance is never handed out to two threads at the
+ * same time, and that the pools never keep more instances than their max size.<br/>
+ * Also checks when {@link Pools.FactoryPool} resets the released instances.
+ */
+public class PoolsTest {
+    private static final int THREAD_COUNT = 8;
+    private static final int ITERATION_COUNT = 100000;
+    private static final int MAX_HELD_COUNT = 3;
+
+    private static class Item {
+        private final AtomicBoolean mInUse = new AtomicBoolean();
+        private int mResetCount;
+    }
+
+    private static final Pools.Factory<Item> ITEM_FACTORY = new Pools.Factory<Item>() {
+        @Override
+        public Item create() {
+            return new Item();
+        }
+    };
+
+    private static final Pools.Resetter<Item> ITEM_RESETTER = new Pools.Resetter<Item>() {
+        @Override
+        public void reset(Item instance) {
+            instance.mResetCount++;
+        }
+    };
+
+    @Test
+    public void concurrentPool() throws InterruptedException {
+        int maxPoolSize = 4;
+        Pools.ConcurrentPool<Item> pool = new Pools.ConcurrentPool<>(maxPoolSize, Pools.<Item>fixedSize(1));
+        List<Item> created = stress(pool);
+
+        // Quiescent: the counted bytes match the pooled instances
+        long retainedBytes = pool.getRetainedBytes();
+        Set<Item> pooled = drain(pool);
+        assertEquals(pooled.size(), retainedBytes);
+        assertTrue("pooled=" + pooled.size(), pooled.size() <= maxPoolSize);
+        assertTrue(created.containsAll(pooled));
+        assertEquals(0, pool.getRetainedBytes());
+    }
+
+    @Test
+    public void threadLocalPool() throws InterruptedException {
+        int maxLocalPoolSize = 2;
+        int maxSharedPoolSize = 4;
+        final Pools.ThreadLocalPool<Item> pool = new Pools.ThreadLocalPool<>(maxLocalPoolSize, maxSharedPoolSize, Pools.<Item>fixedSize(1));
+        stress(pool);
+
+        // The pools of the stress threads are gone with them: only the shared pool is left
+        assertTrue(pool.getRetainedBytes() <= maxSharedPoolSize);
+        Set<Item> pooled = drain(pool);
+        assertTrue("pooled=" + pooled.size(), pooled.size() <= maxSharedPoolSize);
+        assertEquals(0, pool.getRetainedBytes());
+    }
+
+    @Test
+    public void threadLocalPoolBounds() {
+        int maxLocalPoolSize = 2;
+        int maxSharedPoolSize = 3;
+        Pools.ThreadLocalPool<Item> pool = new Pools.ThreadLocalPool<>(maxLocalPoolSize, maxSharedPoolSize);
+        int acceptedCount = 0;
+        for (int i = 0; i < 10; i++) {
+            if (pool.release(new Item())) acceptedCount++;
+        }
+        assertEquals(maxLocalPoolSize + maxSharedPoolSize, acceptedCount);
+        assertEquals(maxLocalPoolSize + maxSharedPoolSize, drain(pool).size());
+    }
+
+    @Test
+    public void concurrentTrim() throws InterruptedException {
+        final Pools.ConcurrentPool<Item> pool = new Pools.ConcurrentPool<>(16, Pools.<Item>fixedSize(1));
+        Thread trimmer = new Thread() {
+            @Override
+            public void run() {
+                while (!isInterrupted()) {
+                    pool.trim(.5f);
+                }
+            }
+        };
+        trimmer.start();
+        try {
+            stress(pool);
+        } finally {
+            trimmer.interrupt();
+            trimmer.join();
+        }
+        long retainedBytes = pool.getRetainedBytes();
+        assertEquals(drain(pool).size(), retainedBytes);
+    }
+
+    @Test
+    public void factoryPoolDoubleReleaseDoesNotReset() {
+        Pools.FactoryPool<Item> pool = new Pools.FactoryPool<>(new Pools.SynchronizedPool<Item>(4), ITEM_FACTORY, ITEM_RESETTER);
+        Item item = pool.acquire();
+        pool.release(item);
+        assertEquals(1, item.mResetCount);
+        try {
+            pool.release(item);
+            fail("Double release not detected");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        assertEquals(1, item.mResetCount);
+    }
+
+    @Test
+    public void factoryPoolOverflowDoesNotReset() {
+        Pools.FactoryPool<Item> pool = new Pools.FactoryPool<>(new Pools.SimplePool<Item>(1), ITEM_FACTORY, ITEM_RESETTER);
+        Item first = pool.acquire();
+        Item second = pool.acquire();
+        assertTrue(pool.release(first));
+        assertFalse(pool.release(second));
+        assertEquals(1, first.mResetCount);
+        assertEquals(0, second.mResetCount);
+        assertEquals(1, pool.getOverflowCount());
+    }
+
+    @Test
+    public void factoryPoolLockFreeResetsBeforeRelease() {
+        Pools.FactoryPool<Item> pool = new Pools.FactoryPool<>(new Pools.ConcurrentPool<Item>(4), ITEM_FACTORY, ITEM_RESETTER);
+        Item item = pool.acquire();
+        pool.release(item);
+        assertEquals(1, item.mResetCount);
+        assertSame(item, pool.acquire());
+    }
+
+    /**
+     * Runs {@link #THREAD_COUNT} threads acquiring and releasing instances of the given pool, and returns all the instances they created.
+     */
+    private static List<Item> stress(final Pools.Pool<Item> pool) throws InterruptedException {
+        final List<Item> created = Collections.synchronizedList(new ArrayList<Item>());
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final AtomicInteger doubleAcquireCount = new AtomicInteger();
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREAD_COUNT; t++) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        startLatch.await();
+                        List<Item> held = new ArrayList<>(MAX_HELD_COUNT);
+                        for (int i = 0; i < ITERATION_COUNT; i++) {
+                            // Acquire 1 to MAX_HELD_COUNT instances, then release them
+                            int count = 1 + i % MAX_HELD_COUNT;
+                            for (int j = 0; j < count; j++) {
+                                Item item = pool.acquire();
+                                if (item == null) {
+                                    item = new Item();
+                                    created.add(item);
+                                }
+                                if (!item.mInUse.compareAndSet(false, true)) doubleAcquireCount.incrementAndGet();
+                                held.add(item);
+                            }
+                            for (Item item : held) {
+                                item.mInUse.set(false);
+                                pool.release(item);
+                            }
+                            held.clear();
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        startLatch.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure.get());
+        assertEquals("Instances handed out twice", 0, doubleAcquireCount.get());
+        return created;
+    }
+
+    /**
+     * Acquires all the instances of the given pool, checking that none is returned twice.
+     */
+    private static Set<Item> drain(Pools.Pool<Item> pool) {
+        Set<Item> res = Collections.newSetFromMap(new IdentityHashMap<Item, Boolean>());
+        Item item;
+        while ((item = pool.acquire()) != null) {
+            assertTrue("Instance returned twice", res.add(item));
+        }
+        return res;
+    }
+}